@@ -0,0 +1,138 @@
+package com.chocohead.merger;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+//Times walking two methods the way MethodCloseness used to (frame-free clone then InsnList#indexOf per variable and jump) against MethodInstructions
+//Needs ASM and Matcher on the classpath, optionally given the instruction counts to try as arguments
+public class MethodInstructionsBench {
+	private static final int RUNS = 15;
+
+	public static void main(String[] args) {
+		int[] sizes = args.length > 0 ? new int[args.length] : new int[] {1000, 5000, 10000, 20000, 40000, 80000};
+		for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+
+		System.out.println(" insns     indexOf  MethodInstructions");
+		for (int size : sizes) {
+			MethodNode a = make(size), b = make(size);
+
+			//Both are given a throwaway round first to warm up
+			long indexOf = Long.MAX_VALUE, positional = Long.MAX_VALUE;
+			for (int run = 0; run <= RUNS; run++) {
+				long start = System.nanoTime();
+				int oldSum = walkIndexOf(a, b);
+				long mid = System.nanoTime();
+				int newSum = walkPositional(a, b);
+				long end = System.nanoTime();
+
+				if (oldSum != newSum) throw new AssertionError("Walks disagree: " + oldSum + " vs " + newSum);
+				if (run == 0) continue;
+
+				indexOf = Math.min(indexOf, mid - start);
+				positional = Math.min(positional, end - mid);
+			}
+
+			System.out.printf("%6d %8.3f ms %8.3f ms  (%.1f vs %.1f ns/insn)%n", size, indexOf / 1e6, positional / 1e6, indexOf / (double) size, positional / (double) size);
+		}
+	}
+
+	private static MethodNode make(int size) {
+		MethodNode node = new MethodNode(Opcodes.ACC_STATIC, "m", "(I)V", null, null);
+		LabelNode start = new LabelNode();
+		node.instructions.add(start);
+
+		for (int line = 1; node.instructions.size() < size; line++) {
+			LabelNode label = new LabelNode();
+			node.instructions.add(label);
+			node.instructions.add(new LineNumberNode(line, label));
+			node.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+			node.instructions.add(new IincInsnNode(0, 1));
+			node.instructions.add(new InsnNode(Opcodes.ICONST_1));
+			node.instructions.add(new JumpInsnNode(Opcodes.IFEQ, line % 2 == 0 ? start : label));
+			node.instructions.add(new FrameNode(Opcodes.F_SAME, 0, null, 0, null));
+		}
+
+		node.instructions.add(new InsnNode(Opcodes.RETURN));
+		return node;
+	}
+
+	private static int walkIndexOf(MethodNode a, MethodNode b) {
+		InsnList listA = cloneWithoutFrames(a.instructions);
+		InsnList listB = cloneWithoutFrames(b.instructions);
+		if (listA.size() != listB.size()) return -1;
+
+		int sum = 0;
+		for (int i = 0; i < listA.size(); i++) {
+			AbstractInsnNode insnA = listA.get(i);
+			AbstractInsnNode insnB = listB.get(i);
+
+			switch (insnA.getType()) {
+			case AbstractInsnNode.VAR_INSN:
+			case AbstractInsnNode.IINC_INSN:
+				sum += listA.indexOf(insnA) + listB.indexOf(insnB);
+				break;
+
+			case AbstractInsnNode.JUMP_INSN:
+				sum += Integer.signum(listA.indexOf(((JumpInsnNode) insnA).label) - listA.indexOf(insnA)) == Integer.signum(listB.indexOf(((JumpInsnNode) insnB).label) - listB.indexOf(insnB)) ? 1 : 0;
+				break;
+			}
+		}
+
+		return sum;
+	}
+
+	private static InsnList cloneWithoutFrames(InsnList list) {
+		Map<LabelNode, LabelNode> clonedLabels = new IdentityHashMap<>();
+		Map<Label, Label> trueLabels = new IdentityHashMap<>();
+
+		for (AbstractInsnNode insn = list.getFirst(); insn != null; insn = insn.getNext()) {
+			if (insn.getType() == AbstractInsnNode.LABEL) {
+				LabelNode node = (LabelNode) insn;
+				clonedLabels.put(node, new LabelNode(trueLabels.computeIfAbsent(node.getLabel(), k -> new Label())));
+			}
+		}
+
+		InsnList out = new InsnList();
+		for (AbstractInsnNode insn = list.getFirst(); insn != null; insn = insn.getNext()) {
+			if (insn.getType() != AbstractInsnNode.FRAME && insn.getType() != AbstractInsnNode.LABEL) out.add(insn.clone(clonedLabels));
+		}
+
+		return out;
+	}
+
+	private static int walkPositional(MethodNode a, MethodNode b) {
+		//Built fresh each time as the cache would otherwise hide the cost
+		MethodInstructions insnsA = new MethodInstructions(null, a);
+		MethodInstructions insnsB = new MethodInstructions(null, b);
+		if (insnsA.size() != insnsB.size()) return -1;
+
+		int sum = 0;
+		for (int i = 0; i < insnsA.size(); i++) {
+			switch (insnsA.getType(i)) {
+			case AbstractInsnNode.VAR_INSN:
+			case AbstractInsnNode.IINC_INSN:
+				sum += i + i; //The frame-free position is what indexOf on the clone gave
+				break;
+
+			case AbstractInsnNode.JUMP_INSN:
+				sum += insnsA.getJumpDirection(i) == insnsB.getJumpDirection(i) ? 1 : 0;
+				break;
+			}
+		}
+
+		return sum;
+	}
+}
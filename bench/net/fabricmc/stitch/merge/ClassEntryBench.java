@@ -0,0 +1,148 @@
+package net.fabricmc.stitch.merge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.ClassNode;
+
+import net.fabricmc.stitch.merge.JarMerger.ClassEntry;
+
+//Times writing every class of a jar through ClassEntry#getContents from a pool of each size, either holding the node lock for
+//the whole remap and write (as the export used to) or only whilst copying the node (as it does now)
+//ASM's ClassRemapper stands in for Matcher's AsmClassRemapper, which needs a loaded project to remap against
+//Arguments are the jar to read (defaults to the one ASM's tree classes came from) followed by the thread counts to try
+public class ClassEntryBench {
+	private static final Object LOCK = new Object();
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		Path jar = args.length > 0 ? Paths.get(args[0]) : Paths.get(ClassNode.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		int[] threads = {1, 2, 4, 8};
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) threads[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		List<ClassNode> nodes = readClasses(jar);
+		Remapper remapper = new Remapper() {
+			@Override
+			public String map(String internalName) {
+				return internalName.startsWith("java/") ? internalName : "merged/" + internalName;
+			}
+		};
+		System.out.printf("%d classes from %s on %d cores%n", nodes.size(), jar.getFileName(), Runtime.getRuntime().availableProcessors());
+
+		List<ClassEntry> wholeLock = new ArrayList<>(), copyLock = new ArrayList<>();
+		for (ClassNode node : nodes) {
+			wholeLock.add(new ClassEntry(null, null, visitor -> {
+				synchronized (LOCK) {
+					node.accept(new ClassRemapper(visitor, remapper));
+				}
+			}));
+
+			copyLock.add(new ClassEntry(null, null, visitor -> {
+				ClassNode copy = new ClassNode(Opcodes.ASM7);
+				synchronized (LOCK) {
+					node.accept(copy);
+				}
+
+				copy.accept(new ClassRemapper(visitor, remapper));
+			}));
+		}
+
+		//Give both a full pass first so neither is timed whilst the JIT is still warming up
+		ExecutorService warmup = Executors.newFixedThreadPool(threads[threads.length - 1]);
+		try {
+			best(warmup, wholeLock);
+			best(warmup, copyLock);
+		} finally {
+			warmup.shutdown();
+		}
+
+		System.out.println("threads  whole lock   copy lock");
+		for (int count : threads) {
+			ExecutorService pool = Executors.newFixedThreadPool(count);
+
+			try {
+				System.out.printf("%7d %8.1f ms %8.1f ms%n", count, best(pool, wholeLock) / 1e6, best(pool, copyLock) / 1e6);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		//How long each class needs the lock for bounds how far either can scale
+		long whole = time(nodes, node -> node.accept(new ClassRemapper(new ClassWriter(0), remapper)));
+		long copy = time(nodes, node -> node.accept(new ClassNode(Opcodes.ASM7)));
+		System.out.printf("Lock held per class: whole %.1f us, copy %.1f us%n", whole / 1e3 / nodes.size(), copy / 1e3 / nodes.size());
+	}
+
+	private static List<ClassNode> readClasses(Path jar) throws IOException {
+		List<ClassNode> out = new ArrayList<>();
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements();) {
+				ZipEntry entry = it.nextElement();
+				if (!entry.getName().endsWith(".class") || entry.getName().endsWith("module-info.class")) continue;
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					ClassNode node = new ClassNode(Opcodes.ASM7);
+					new ClassReader(in).accept(node, 0);
+					out.add(node);
+				}
+			}
+		}
+
+		return out;
+	}
+
+	private static long best(ExecutorService pool, List<ClassEntry> entries) throws Exception {
+		long best = Long.MAX_VALUE;
+
+		//The first round is only there to warm up
+		for (int run = 0; run <= RUNS; run++) {
+			long start = System.nanoTime();
+
+			List<Future<byte[]>> tasks = new ArrayList<>(entries.size());
+			for (ClassEntry entry : entries) {
+				tasks.add(pool.submit(entry::getContents));
+			}
+			for (Future<byte[]> task : tasks) {
+				task.get();
+			}
+
+			if (run > 0) best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return best;
+	}
+
+	private static long time(List<ClassNode> nodes, Consumer<ClassNode> action) {
+		long best = Long.MAX_VALUE;
+
+		for (int run = 0; run <= RUNS; run++) {
+			long start = System.nanoTime();
+			for (ClassNode node : nodes) {
+				action.accept(node);
+			}
+			if (run > 0) best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return best;
+	}
+}
@@ -0,0 +1,266 @@
+package com.chocohead.merger;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Deflater;
+
+import matcher.Matcher;
+import matcher.config.ProjectConfig;
+import matcher.type.ClassEnvironment;
+
+import com.chocohead.merger.MergeExporter.UidScheme;
+import com.chocohead.merger.mappings.MappingFormat;
+
+public class HeadlessMerger {
+	private static void printUsage() {
+		System.err.println("Usage: <server jar> <client jar> <merged jar> <mappings> [options]");
+		System.err.println("Options:");
+		System.err.println("\t--format <tiny|tiny-gz|tiny2>\tMappings format to export (default tiny)");
+		System.err.println("\t--compression <0-9>\t\tDeflate level for the merged jar, 0 stores entries uncompressed");
+		System.err.println("\t--uids <sequential|structural>\tHow new glue UIDs are chosen (default sequential)");
+		System.err.println("\t--client-first\t\t\tTreat the first jar as the client rather than the server");
+		System.err.println("\t--validate\t\t\tCheck the glue is consistent as it is exported, even without -ea");
+		System.err.println("\t--resume <mappings>\t\tPreviously exported glue to start matching from");
+		System.err.println("\t--snapshot <file>\t\tMatch snapshot to load from if present, then save to once matched");
+		System.err.println("\t--classpath-a <paths>\t\tLibraries only the first jar needs");
+		System.err.println("\t--classpath-b <paths>\t\tLibraries only the second jar needs");
+		System.err.println("\t--classpath <paths>\t\tLibraries both jars need");
+		System.err.println("\t--exclude-a <regex>\t\tClasses in the first jar to leave without UIDs");
+		System.err.println("\t--exclude-b <regex>\t\tClasses in the second jar to leave without UIDs");
+		System.err.println("\t--non-obf-class-a <regex>\tClass names in the first jar which aren't obfuscated");
+		System.err.println("\t--non-obf-class-b <regex>\tClass names in the second jar which aren't obfuscated");
+		System.err.println("\t--non-obf-member-a <regex>\tMember names in the first jar which aren't obfuscated");
+		System.err.println("\t--non-obf-member-b <regex>\tMember names in the second jar which aren't obfuscated");
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			printUsage();
+			System.exit(1);
+		}
+
+		Path jarA = Paths.get(args[0]);
+		Path jarB = Paths.get(args[1]);
+		Path mergedJar = Paths.get(args[2]);
+		Path mappings = Paths.get(args[3]);
+
+		MappingFormat type = MappingFormat.Tiny;
+		int compression = Deflater.DEFAULT_COMPRESSION;
+		UidScheme uids = UidScheme.SEQUENTIAL;
+		boolean serverA = true;
+		Path resume = null, snapshot = null;
+		List<Path> classPathA = new ArrayList<>(), classPathB = new ArrayList<>(), sharedClassPath = new ArrayList<>();
+		String excludedA = "", excludedB = "";
+		String nonObfClassA = "", nonObfClassB = "", nonObfMemberA = "", nonObfMemberB = "";
+
+		for (int i = 4; i < args.length; i++) {
+			String arg = args[i];
+
+			if ("--client-first".equals(arg)) {
+				serverA = false;
+				continue;
+			}
+			if ("--validate".equals(arg)) {
+				System.setProperty(MergeExporter.VALIDATE_PROPERTY, "true");
+				continue;
+			}
+
+			if (i + 1 >= args.length) {
+				System.err.println("Missing value for " + arg);
+				printUsage();
+				System.exit(1);
+			}
+			String value = args[++i];
+
+			switch (arg) {
+			case "--format":
+				switch (value) {
+				case "tiny":
+					type = MappingFormat.Tiny;
+					break;
+
+				case "tiny-gz":
+					type = MappingFormat.CompressedTiny;
+					break;
+
+				case "tiny2":
+					type = MappingFormat.TinyV2;
+					break;
+
+				default:
+					System.err.println("Unknown mappings format: " + value);
+					printUsage();
+					System.exit(1);
+				}
+				break;
+
+			case "--compression":
+				try {
+					compression = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					compression = Integer.MIN_VALUE;
+				}
+
+				if (compression < Deflater.NO_COMPRESSION || compression > Deflater.BEST_COMPRESSION) {
+					System.err.println("Invalid compression level: " + value);
+					printUsage();
+					System.exit(1);
+				}
+				break;
+
+			case "--uids":
+				switch (value) {
+				case "sequential":
+					uids = UidScheme.SEQUENTIAL;
+					break;
+
+				case "structural":
+					uids = UidScheme.STRUCTURAL;
+					break;
+
+				default:
+					System.err.println("Unknown UID scheme: " + value);
+					printUsage();
+					System.exit(1);
+				}
+				break;
+
+			case "--resume":
+				resume = Paths.get(value);
+				break;
+
+			case "--snapshot":
+				snapshot = Paths.get(value);
+				break;
+
+			case "--classpath-a":
+				classPathA.addAll(splitPaths(value));
+				break;
+
+			case "--classpath-b":
+				classPathB.addAll(splitPaths(value));
+				break;
+
+			case "--classpath":
+				sharedClassPath.addAll(splitPaths(value));
+				break;
+
+			case "--exclude-a":
+				excludedA = value;
+				break;
+
+			case "--exclude-b":
+				excludedB = value;
+				break;
+
+			case "--non-obf-class-a":
+				nonObfClassA = value;
+				break;
+
+			case "--non-obf-class-b":
+				nonObfClassB = value;
+				break;
+
+			case "--non-obf-member-a":
+				nonObfMemberA = value;
+				break;
+
+			case "--non-obf-member-b":
+				nonObfMemberB = value;
+				break;
+
+			default:
+				System.err.println("Unknown option: " + arg);
+				printUsage();
+				System.exit(1);
+			}
+		}
+
+		for (Path jar : new Path[] {jarA, jarB}) {
+			if (!Files.isRegularFile(jar)) {
+				System.err.println("Unable to find input jar: " + jar);
+				System.exit(1);
+			}
+		}
+		if (resume != null && !Files.isRegularFile(resume)) {
+			System.err.println("Unable to find glue to resume from: " + resume);
+			System.exit(1);
+		}
+
+		ProjectConfig config = new ProjectConfig(Collections.singletonList(jarA), Collections.singletonList(jarB), classPathA, classPathB, sharedClassPath,
+				false, nonObfClassA, nonObfClassB, nonObfMemberA, nonObfMemberB);
+		if (!config.isValid()) {
+			System.err.println("Invalid project configuration");
+			System.exit(1);
+		}
+
+		ClassEnvironment env = new ClassEnvironment();
+		Matcher matcher = new Matcher(env);
+
+		long start = System.nanoTime();
+		System.out.println("Loading jars...");
+		matcher.init(config, progress("Loading"));
+
+		if (snapshot != null && Files.isRegularFile(snapshot)) {
+			System.out.println("Loading snapshot...");
+
+			try {
+				MergeSnapshot.load(matcher, snapshot, progress("Loading snapshot"));
+			} catch (IllegalStateException | UncheckedIOException e) {
+				//A stale or broken snapshot only costs the matching it would have saved, it'll be replaced once matched
+				System.err.println("Unable to use snapshot, matching from scratch: " + e.getMessage());
+			}
+		}
+
+		if (resume != null) {
+			System.out.println("Importing glue...");
+			MergeExporter.importGlue(matcher, resume, serverA, progress("Importing"));
+		}
+
+		System.out.println("Matching...");
+		MergeStep.runUntilComplete(matcher, progress("Matching"));
+
+		if (snapshot != null) {
+			System.out.println("Saving snapshot...");
+			MergeSnapshot.save(env, snapshot, progress("Saving snapshot"));
+		}
+
+		System.out.println("Exporting...");
+		MergeExporter.dumpMergedJar(env, mergedJar, mappings, type, serverA, excludedA, excludedB, compression, uids, progress("Exporting"));
+
+		System.out.printf("Finished in %.1fs%n", (System.nanoTime() - start) / 1e9);
+	}
+
+	private static List<Path> splitPaths(String paths) {
+		List<Path> out = new ArrayList<>();
+
+		for (String path : paths.split(File.pathSeparator)) {
+			if (!path.isEmpty()) out.add(Paths.get(path));
+		}
+
+		return out;
+	}
+
+	private static DoubleConsumer progress(String stage) {
+		return new DoubleConsumer() {
+			private int lastReported = -1;
+
+			@Override
+			public synchronized void accept(double value) {
+				int percent = (int) (value * 10) * 10;
+
+				if (percent != lastReported) {
+					lastReported = percent;
+					System.out.println('\t' + stage + ": " + percent + '%');
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,143 @@
+package com.chocohead.merger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import matcher.Matcher;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.MethodInstance;
+
+public class MatchStatistics {
+	private static final int MATCHED = 0, UNMATCHED_METHODS = 1, UNMATCHED_FIELDS = 2;
+	private final Map<ClassInstance, int[]> classes = new IdentityHashMap<>();
+	private int methods, fields;
+	private int unmatchedClasses, unmatchedMethods, unmatchedFields;
+
+	public static MatchStatistics untracked() {
+		return new MatchStatistics(Collections.emptyList());
+	}
+
+	public MatchStatistics(Collection<ClassInstance> classes) {
+		for (ClassInstance cls : classes) {
+			if (cls.getUri() == null || !cls.isNameObfuscated()) continue;
+
+			this.classes.put(cls, new int[3]);
+			methods += cls.getMethods().length;
+			fields += cls.getFields().length;
+		}
+
+		recount();
+	}
+
+	public void recount() {
+		unmatchedClasses = unmatchedMethods = unmatchedFields = 0;
+
+		for (Map.Entry<ClassInstance, int[]> entry : classes.entrySet()) {
+			count(entry.getKey(), entry.getValue());
+
+			unmatchedClasses += 1 - entry.getValue()[MATCHED];
+			unmatchedMethods += entry.getValue()[UNMATCHED_METHODS];
+			unmatchedFields += entry.getValue()[UNMATCHED_FIELDS];
+		}
+	}
+
+	private static void count(ClassInstance cls, int[] counts) {
+		counts[MATCHED] = cls.hasMatch() ? 1 : 0;
+
+		int unmatched = 0;
+		for (MethodInstance method : cls.getMethods()) {
+			if (!method.hasMatch()) unmatched++;
+		}
+		counts[UNMATCHED_METHODS] = unmatched;
+
+		unmatched = 0;
+		for (FieldInstance field : cls.getFields()) {
+			if (!field.hasMatch()) unmatched++;
+		}
+		counts[UNMATCHED_FIELDS] = unmatched;
+	}
+
+	public void update(ClassInstance cls) {
+		int[] counts = classes.get(cls);
+		if (counts == null) return; //Not a class we're tracking
+
+		unmatchedClasses -= 1 - counts[MATCHED];
+		unmatchedMethods -= counts[UNMATCHED_METHODS];
+		unmatchedFields -= counts[UNMATCHED_FIELDS];
+
+		count(cls, counts);
+
+		unmatchedClasses += 1 - counts[MATCHED];
+		unmatchedMethods += counts[UNMATCHED_METHODS];
+		unmatchedFields += counts[UNMATCHED_FIELDS];
+	}
+
+	public void match(Matcher matcher, ClassInstance a, ClassInstance b) {
+		ClassInstance previous = b.getMatch();
+
+		matcher.match(a, b);
+
+		update(a);
+		if (previous != null) update(previous);
+	}
+
+	public void match(Matcher matcher, MethodInstance a, MethodInstance b) {
+		//Matching a method also matches (and so can unmatch) the rest of either side's hierarchy
+		List<ClassInstance> previous = b.getAllHierarchyMembers().stream().filter(MethodInstance::hasMatch).map(method -> method.getMatch().getCls()).collect(Collectors.toList());
+
+		matcher.match(a, b);
+
+		for (MethodInstance method : a.getAllHierarchyMembers()) update(method.getCls());
+		for (ClassInstance cls : previous) update(cls);
+	}
+
+	public void match(Matcher matcher, FieldInstance a, FieldInstance b) {
+		FieldInstance previous = b.getMatch();
+
+		matcher.match(a, b);
+
+		update(a.getCls());
+		if (previous != null) update(previous.getCls());
+	}
+
+	public void unmatch(Matcher matcher, ClassInstance cls) {
+		matcher.unmatch(cls);
+
+		update(cls);
+	}
+
+	public void unmatch(Matcher matcher, MethodInstance method) {
+		matcher.unmatch(method);
+
+		for (MethodInstance member : method.getAllHierarchyMembers()) update(member.getCls());
+	}
+
+	public int getClasses() {
+		return classes.size();
+	}
+
+	public int getUnmatchedClasses() {
+		return unmatchedClasses;
+	}
+
+	public int getMethods() {
+		return methods;
+	}
+
+	public int getUnmatchedMethods() {
+		return unmatchedMethods;
+	}
+
+	public int getFields() {
+		return fields;
+	}
+
+	public int getUnmatchedFields() {
+		return unmatchedFields;
+	}
+}
@@ -0,0 +1,970 @@
+package com.chocohead.merger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.stitch.merge.JarMerger;
+
+import matcher.Matcher;
+import matcher.NameType;
+import matcher.Util;
+import matcher.bcremap.AsmRemapper;
+import matcher.type.ClassEnv;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.InputFile;
+import matcher.type.Matchable;
+import matcher.type.MemberInstance;
+import matcher.type.MethodInstance;
+
+import com.chocohead.merger.mappings.MappedUidRemapper;
+import com.chocohead.merger.mappings.MappingFormat;
+import com.chocohead.merger.mappings.TinyReader;
+import com.chocohead.merger.mappings.TinyWriter;
+
+public class MergeExporter {
+	public enum UidScheme {
+		SEQUENTIAL, STRUCTURAL;
+	}
+
+	private static final int SHARD_SIZE = 64;
+	private static final int MAX_SHARDS_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 2;
+	public static final String VALIDATE_PROPERTY = "merger.validateGlue";
+	//Matcher's names for things with a UID but no mapping
+	private static final String CLASS_UID_PREFIX = "class_", METHOD_UID_PREFIX = "method_", FIELD_UID_PREFIX = "field_";
+	//The instances in a record lead back to the environment, so a weak map would never let go of it anyway
+	//Environments are reused across project changes instead, so a record is checked to still be for the loaded classes before it's used
+	private static final Map<ClassEnvironment, Glued> GLUED = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	static class Glued {
+		public final Set<ClassInstance> classes = Util.newIdentityHashSet();
+		public final Set<MethodInstance> methods = Util.newIdentityHashSet();
+		public final Set<FieldInstance> fields = Util.newIdentityHashSet();
+
+		boolean isCurrent(ClassEnvironment env) {
+			Set<ClassInstance> owners = Util.newIdentityHashSet();
+			owners.addAll(classes);
+			for (MethodInstance method : methods) {
+				owners.add(method.getCls());
+			}
+			for (FieldInstance field : fields) {
+				owners.add(field.getCls());
+			}
+
+			for (ClassInstance cls : owners) {
+				ClassInstance current;
+				if (cls.getEnv() == env.getEnvA()) {
+					current = env.getClsByIdA(cls.getId());
+				} else if (cls.getEnv() == env.getEnvB()) {
+					current = env.getClsByIdB(cls.getId());
+				} else {
+					current = env.getSharedClsById(cls.getId());
+				}
+
+				if (current != cls) return false;
+			}
+
+			return true;
+		}
+	}
+
+	static Glued gluedFor(ClassEnvironment env) {
+		synchronized (GLUED) {
+			Glued glued = GLUED.get(env);
+
+			if (glued == null || !glued.isCurrent(env)) {
+				//Anything from a previous project is no use, and would only keep its classes from being collected
+				GLUED.put(env, glued = new Glued());
+			}
+
+			return glued;
+		}
+	}
+
+	public static void dumpMergedJar(ClassEnvironment env, Path mergeJar, Path mappings, MappingFormat type, boolean serverA, String excludedA, String excludedB, DoubleConsumer progress) {
+		dumpMergedJar(env, mergeJar, mappings, type, serverA, excludedA, excludedB, Deflater.DEFAULT_COMPRESSION, progress);
+	}
+
+	public static void dumpMergedJar(ClassEnvironment env, Path mergeJar, Path mappings, MappingFormat type, boolean serverA, String excludedA, String excludedB, int compressionLevel, DoubleConsumer progress) {
+		dumpMergedJar(env, mergeJar, mappings, type, serverA, excludedA, excludedB, compressionLevel, UidScheme.SEQUENTIAL, progress);
+	}
+
+	public static void dumpMergedJar(ClassEnvironment env, Path mergeJar, Path mappings, MappingFormat type, boolean serverA, String excludedA, String excludedB, int compressionLevel, UidScheme scheme, DoubleConsumer progress) {
+		Predicate<ClassInstance> assignSkipper;
+		if (!excludedA.isEmpty() || !excludedB.isEmpty()) {
+			Predicate<ClassInstance> aSkipper = exluderFor(excludedA);
+			Predicate<ClassInstance> bSkipper = exluderFor(excludedB);
+			assignSkipper = cls -> (cls.getEnv() == env.getEnvA() == serverA ? aSkipper : bSkipper).test(cls);
+		} else {
+			assignSkipper = cls -> false;
+		}
+		assignGlue(env, assignSkipper, scheme, progress);
+		exportGlue(env, mappings, type, serverA, exluderFor(excludedA), exluderFor(excludedB), progress);
+
+		Path aIn = pullInput(env.getInputFilesA());
+		Path bIn = pullInput(env.getInputFilesB());
+
+		try (JarMerger merger = new JarMerger(!serverA ? env::getClsByNameA : env::getClsByNameB, serverA ? env::getClsByNameA : env::getClsByNameB, !serverA ? aIn : bIn, serverA ? aIn : bIn, mergeJar)) {
+			System.out.println("Merging...");
+
+			merger.setCompressionLevel(compressionLevel);
+			merger.merge();
+
+			System.out.println("Merge completed!");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error merging jars", e);
+		}
+	}
+
+	private static Predicate<ClassInstance> exluderFor(String pattern) {
+		if (pattern.isEmpty()) return cls -> false;
+
+		Pattern regex = Pattern.compile(pattern);
+		return cls -> regex.matcher(cls.getName()).matches();
+	}
+
+	private static Path pullInput(Collection<InputFile> inputs) {
+		if (inputs.size() != 1) throw new UnsupportedOperationException("Unable to merge multiple input files");
+		InputFile input = inputs.iterator().next();
+
+		return input.hasPath() ? input.path : Paths.get(input.fileName);
+	}
+
+	public static void importGlue(Matcher matcher, Path from, boolean serverFirst, DoubleConsumer progress) {
+		ClassEnvironment env = matcher.getEnv();
+		Function<String, ClassInstance> serverLookup = inputsFrom(serverFirst ? env::getLocalClsByNameA : env::getLocalClsByNameB);
+		Function<String, ClassInstance> clientLookup = inputsFrom(serverFirst ? env::getLocalClsByNameB : env::getLocalClsByNameA);
+
+		Map<String, ClassInstance> serverClasses = new HashMap<>();
+		Map<String, ClassInstance> clientClasses = new HashMap<>();
+		int[] imported = new int[4]; //Classes, methods, fields then UIDs
+		Glued glued = gluedFor(env);
+
+		try {
+			//All the classes are read first so member descriptors can be remapped regardless of which classes they mention
+			TinyReader.read(from, new TinyReader.Visitor() {
+				@Override
+				public void acceptClass(String glue, String server, String client) {
+					ClassInstance serverCls = server != null ? serverLookup.apply(server) : null;
+					ClassInstance clientCls = client != null ? clientLookup.apply(client) : null;
+					if (serverCls != null) serverClasses.put(glue, serverCls);
+					if (clientCls != null) clientClasses.put(glue, clientCls);
+
+					if (serverCls != null && clientCls != null && !serverCls.hasMatch() && !clientCls.hasMatch()) {
+						if (serverFirst) {
+							matcher.match(serverCls, clientCls);
+						} else {
+							matcher.match(clientCls, serverCls);
+						}
+						imported[0]++;
+					}
+
+					int uid = parseUid(glue, CLASS_UID_PREFIX);
+					if (uid >= 0 && canTakeUid(serverCls, clientCls)) {
+						if (serverCls != null) {
+							serverCls.setUid(uid);
+							glued.classes.add(serverCls);
+						}
+						if (clientCls != null) {
+							clientCls.setUid(uid);
+							glued.classes.add(clientCls);
+						}
+						imported[3]++;
+					}
+				}
+			});
+			progress.accept(0.5);
+
+			Remapper serverDescs = glueRemapper(serverClasses);
+			Remapper clientDescs = glueRemapper(clientClasses);
+
+			TinyReader.read(from, new TinyReader.Visitor() {
+				@Override
+				public void acceptMethod(String glueClass, String glueName, String desc, String serverName, String clientName) {
+					ClassInstance serverCls = serverName != null ? ownerFor(glueClass, serverClasses, serverLookup) : null;
+					ClassInstance clientCls = clientName != null ? ownerFor(glueClass, clientClasses, clientLookup) : null;
+					MethodInstance server = serverCls != null ? serverCls.getMethod(serverName, serverDescs.mapMethodDesc(desc)) : null;
+					MethodInstance client = clientCls != null ? clientCls.getMethod(clientName, clientDescs.mapMethodDesc(desc)) : null;
+
+					if (server != null && client != null && !server.hasMatch() && !client.hasMatch() && server.getCls().getMatch() == client.getCls()) {
+						if (serverFirst) {
+							matcher.match(server, client);
+						} else {
+							matcher.match(client, server);
+						}
+						imported[1]++;
+					}
+
+					int uid = parseUid(glueName, METHOD_UID_PREFIX);
+					if (uid >= 0 && canTakeUid(server, client) && hierarchyFree(server) && hierarchyFree(client)) {
+						if (server != null) setHierarchyUid(server, uid, glued.methods);
+						if (client != null) setHierarchyUid(client, uid, glued.methods);
+						imported[3]++;
+					}
+				}
+
+				@Override
+				public void acceptField(String glueClass, String glueName, String desc, String serverName, String clientName) {
+					ClassInstance serverCls = serverName != null ? ownerFor(glueClass, serverClasses, serverLookup) : null;
+					ClassInstance clientCls = clientName != null ? ownerFor(glueClass, clientClasses, clientLookup) : null;
+					FieldInstance server = serverCls != null ? serverCls.getField(serverName, serverDescs.mapDesc(desc)) : null;
+					FieldInstance client = clientCls != null ? clientCls.getField(clientName, clientDescs.mapDesc(desc)) : null;
+
+					if (server != null && client != null && !server.hasMatch() && !client.hasMatch() && server.getCls().getMatch() == client.getCls()) {
+						if (serverFirst) {
+							matcher.match(server, client);
+						} else {
+							matcher.match(client, server);
+						}
+						imported[2]++;
+					}
+
+					int uid = parseUid(glueName, FIELD_UID_PREFIX);
+					if (uid >= 0 && canTakeUid(server, client)) {
+						if (server != null) {
+							server.setUid(uid);
+							glued.fields.add(server);
+						}
+						if (client != null) {
+							client.setUid(uid);
+							glued.fields.add(client);
+						}
+						imported[3]++;
+					}
+				}
+			});
+			progress.accept(1);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error reading glue from " + from, e);
+		}
+
+		System.out.printf("Imported glue: matched %d classes, %d methods and %d fields, restored %d UIDs%n", imported[0], imported[1], imported[2], imported[3]);
+	}
+
+	private static Function<String, ClassInstance> inputsFrom(Function<String, ClassInstance> lookup) {
+		return name -> {
+			ClassInstance cls = lookup.apply(name);
+			return cls != null && cls.isInput() ? cls : null;
+		};
+	}
+
+	private static ClassInstance ownerFor(String glueClass, Map<String, ClassInstance> classes, Function<String, ClassInstance> lookup) {
+		ClassInstance cls = classes.get(glueClass);
+		if (cls != null) return cls;
+
+		//Classes which aren't obfuscated are exported under their own names without a class entry
+		cls = lookup.apply(glueClass);
+		return cls != null && !cls.isNameObfuscated() ? cls : null;
+	}
+
+	private static Remapper glueRemapper(Map<String, ClassInstance> classes) {
+		return new Remapper() {
+			@Override
+			public String map(String internalName) {
+				ClassInstance cls = classes.get(internalName);
+				return cls != null ? cls.getName() : internalName;
+			}
+		};
+	}
+
+	private static int parseUid(String glueName, String prefix) {
+		int start = Math.max(glueName.lastIndexOf('/'), glueName.lastIndexOf('$')) + 1;
+		int digits = start + prefix.length();
+
+		//Only names like class_123 came from a UID, anything else (like Foo_12) was a mapped or anonymous class name
+		if (!glueName.startsWith(prefix, start) || digits == glueName.length() || glueName.length() - digits > 10) return -1;
+		if (glueName.charAt(digits) == '0' && digits + 1 != glueName.length()) return -1; //UIDs are never written with leading zeros
+		for (int i = digits, end = glueName.length(); i < end; i++) {
+			char c = glueName.charAt(i);
+			if (c < '0' || c > '9') return -1;
+		}
+
+		long uid = Long.parseLong(glueName.substring(digits));
+		return uid <= Integer.MAX_VALUE ? (int) uid : -1;
+	}
+
+	private static <T extends Matchable<T>> boolean canTakeUid(T server, T client) {
+		if (server == null && client == null) return false;
+
+		if (server != null && client != null) {
+			if (server.getMatch() != client) return false;
+		} else if ((server != null ? server : client).hasMatch()) {
+			return false; //Would leave the UIDs on each side of the match disagreeing
+		}
+
+		return (server == null || isUnnamed(server)) && (client == null || isUnnamed(client));
+	}
+
+	private static boolean isUnnamed(Matchable<?> thing) {
+		return thing.isNameObfuscated() && !thing.hasMappedName() && thing.getUid() < 0;
+	}
+
+	private static boolean hierarchyFree(MethodInstance method) {
+		return method == null || method.getAllHierarchyMembers().stream().allMatch(m -> m.getUid() < 0);
+	}
+
+	private static void setHierarchyUid(MethodInstance method, int uid, Set<MethodInstance> glued) {
+		for (MethodInstance m : method.getAllHierarchyMembers()) {
+			m.setUid(uid);
+			glued.add(m);
+		}
+	}
+
+	private static class GlueWork {
+		public final ClassInstance cls;
+		public final List<MethodInstance> methods = new ArrayList<>();
+		public final List<FieldInstance> fields = new ArrayList<>();
+		public int classID = -1;
+		public final List<List<MethodInstance>> methodGroups = new ArrayList<>();
+		public int[] methodIDs, fieldIDs;
+		public int classHash;
+		public int[] methodHashes, fieldHashes;
+
+		public GlueWork(ClassInstance cls) {
+			this.cls = cls;
+		}
+
+		public void collect(Predicate<ClassInstance> skipper) {
+			for (MethodInstance method : cls.getMethods()) {
+				if (method.isNameObfuscated() && method.getUid() < 0 && method.getParents().stream().map(MethodInstance::getCls).noneMatch(skipper)) {
+					methods.add(method);
+				}
+			}
+			methods.sort(MemberInstance.nameComparator);
+
+			for (FieldInstance field : cls.getFields()) {
+				if (field.isNameObfuscated() && field.getUid() < 0) {
+					fields.add(field);
+				}
+			}
+			fields.sort(MemberInstance.nameComparator);
+
+			methodIDs = new int[methods.size()];
+			fieldIDs = new int[fields.size()];
+		}
+
+		public void hash(ClassEnv sideA) {
+			//Matched pairs are always hashed from the A side so they come out the same whichever is named first
+			ClassInstance canonical = cls.hasMatch() && cls.getEnv() != sideA ? cls.getMatch() : cls;
+			classHash = StructuralHash.ofClass(canonical);
+
+			methodHashes = new int[methods.size()];
+			for (int i = 0; i < methodHashes.length; i++) {
+				MethodInstance method = methods.get(i);
+				methodHashes[i] = StructuralHash.ofMethod(method.hasMatch() && cls.getEnv() != sideA ? method.getMatch() : method);
+			}
+
+			fieldHashes = new int[fields.size()];
+			for (int i = 0; i < fieldHashes.length; i++) {
+				FieldInstance field = fields.get(i);
+				fieldHashes[i] = StructuralHash.ofField(field.hasMatch() && cls.getEnv() != sideA ? field.getMatch() : field);
+			}
+		}
+
+		public void apply() {
+			if (classID >= 0) {
+				cls.setUid(classID);
+				assert cls.getUid() == classID: "Failed to claim UID for " + cls;
+			}
+
+			for (int i = 0; i < methodGroups.size(); i++) {
+				int id = methodIDs[i];
+
+				for (MethodInstance m : methodGroups.get(i)) {
+					assert m.getUid() < 0 || m.getUid() == id: "Changed " + m + " UID from " + m.getUid() + " to " + id;
+					m.setUid(id);
+					assert m.getUid() == id: "Failed to claim UID for " + m;
+				}
+			}
+
+			for (int i = 0; i < fields.size(); i++) {
+				int id = fieldIDs[i];
+				if (id < 0) continue;
+
+				FieldInstance field = fields.get(i);
+				field.setUid(id);
+				assert field.getUid() == id: "Failed to claim UID for " + field;
+			}
+		}
+	}
+
+	private static class MethodGroups {
+		private final Map<MethodInstance, MethodInstance> parents = new IdentityHashMap<>();
+
+		public MethodGroups(Collection<ClassInstance> classes) {
+			Deque<MethodInstance> toVisit = new ArrayDeque<>();
+
+			for (ClassInstance cls : classes) {
+				for (MethodInstance method : cls.getMethods()) {
+					if (parents.putIfAbsent(method, method) == null) toVisit.add(method);
+				}
+			}
+
+			//Pull in anything from outside the inputs which links hierarchies together too
+			while (!toVisit.isEmpty()) {
+				MethodInstance method = toVisit.remove();
+
+				for (MethodInstance parent : method.getParents()) {
+					if (parents.putIfAbsent(parent, parent) == null) toVisit.add(parent);
+					union(method, parent);
+				}
+				for (MethodInstance child : method.getChildren()) {
+					if (parents.putIfAbsent(child, child) == null) toVisit.add(child);
+					union(method, child);
+				}
+
+				//Matched methods share a UID, so their hierarchies have to be named together
+				if (method.hasMatch()) {
+					MethodInstance match = method.getMatch();
+					if (parents.putIfAbsent(match, match) == null) toVisit.add(match);
+					union(method, match);
+				}
+			}
+		}
+
+		public MethodInstance find(MethodInstance method) {
+			MethodInstance parent;
+			while ((parent = parents.get(method)) != method) {
+				MethodInstance grandparent = parents.get(parent);
+				parents.put(method, grandparent);
+				method = grandparent;
+			}
+
+			return method;
+		}
+
+		private void union(MethodInstance a, MethodInstance b) {
+			MethodInstance rootA = find(a);
+			MethodInstance rootB = find(b);
+			if (rootA != rootB) parents.put(rootA, rootB);
+		}
+
+		public Map<MethodInstance, List<MethodInstance>> groups() {
+			Map<MethodInstance, List<MethodInstance>> roots = new IdentityHashMap<>();
+			Map<MethodInstance, List<MethodInstance>> out = new IdentityHashMap<>();
+
+			for (MethodInstance method : parents.keySet()) {
+				List<MethodInstance> group = roots.computeIfAbsent(find(method), k -> new ArrayList<>());
+				group.add(method);
+				out.put(method, group);
+			}
+
+			return out;
+		}
+	}
+
+	public static void assignGlue(ClassEnvironment env, Predicate<ClassInstance> skipper, DoubleConsumer progress) {
+		assignGlue(env, skipper, UidScheme.SEQUENTIAL, progress);
+	}
+
+	public static void assignGlue(ClassEnvironment env, Predicate<ClassInstance> skipper, UidScheme scheme, DoubleConsumer progress) {
+		int nextClassID = 1;
+		int nextMethodID = 1;
+		int nextFieldID = 1;
+		boolean hashed = scheme == UidScheme.STRUCTURAL;
+		Set<Integer> usedClassIDs = new HashSet<>(), usedMethodIDs = new HashSet<>(), usedFieldIDs = new HashSet<>();
+
+		List<ClassInstance> classes = new ArrayList<>(env.getClasses());
+		classes.sort(Comparator.comparing(ClassInstance::getName));
+
+		//Carry on from any UIDs which have been imported rather than handing them out again
+		for (ClassInstance cls : classes) {
+			nextClassID = Math.max(nextClassID, cls.getUid() + 1);
+			if (hashed && cls.getUid() >= 0) usedClassIDs.add(cls.getUid());
+
+			for (MethodInstance method : cls.getMethods()) {
+				nextMethodID = Math.max(nextMethodID, method.getUid() + 1);
+				if (hashed && method.getUid() >= 0) usedMethodIDs.add(method.getUid());
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				nextFieldID = Math.max(nextFieldID, field.getUid() + 1);
+				if (hashed && field.getUid() >= 0) usedFieldIDs.add(field.getUid());
+			}
+		}
+		int firstClassID = nextClassID, firstMethodID = nextMethodID, firstFieldID = nextFieldID;
+
+		List<GlueWork> work = new ArrayList<>(classes.size());
+		for (ClassInstance cls : classes) {
+			assert cls.isInput();
+			if (!skipper.test(cls)) work.add(new GlueWork(cls));
+		}
+		Matcher.runInParallel(work, task -> {
+			task.collect(skipper);
+			if (hashed) task.hash(env.getEnvA());
+		}, value -> progress.accept(value / 2));
+
+		Map<MethodInstance, List<MethodInstance>> methodGroups = new MethodGroups(classes).groups();
+
+		//Which member of a hierarchy is reached first depends on obfuscated names, so the whole group is claimed by its lowest member
+		Map<List<MethodInstance>, UidClaim> groupHashes = new IdentityHashMap<>();
+		if (hashed) {
+			for (GlueWork task : work) {
+				for (int i = 0; i < task.methods.size(); i++) {
+					UidClaim lowest = new UidClaim(task.methodHashes[i], task.classHash, null);
+					groupHashes.merge(methodGroups.get(task.methods.get(i)), lowest, (a, b) -> UidClaim.ORDER.compare(a, b) <= 0 ? a : b);
+				}
+			}
+		}
+		List<UidClaim> classClaims = new ArrayList<>(), methodClaims = new ArrayList<>(), fieldClaims = new ArrayList<>();
+
+		//Numbering is done serially in the sorted order so the UIDs come out the same as they always have
+		Set<Object> named = Util.newIdentityHashSet();
+		Glued glued = gluedFor(env);
+		for (GlueWork task : work) {
+			ClassInstance cls = task.cls;
+
+			if (cls.isNameObfuscated()) {
+				if (cls.getUid() >= 0 || cls.hasMatch() && named.contains(cls.getMatch())) {
+					assert !cls.hasMatch() || cls.getUid() < 0 || cls.getUid() == cls.getMatch().getUid();
+				} else {
+					if (hashed) {
+						classClaims.add(new UidClaim(task.classHash, 0, id -> task.classID = id));
+					} else {
+						task.classID = nextClassID;
+					}
+					nextClassID++;
+					named.add(cls);
+					glued.classes.add(cls);
+				}
+			}
+
+			for (int i = 0; i < task.methods.size(); i++) {
+				MethodInstance method = task.methods.get(i);
+				List<MethodInstance> group = methodGroups.get(method);
+				if (!named.add(group)) continue;
+				assert containsHierarchy(group, method); //Every method in a hierarchy has the same members, so checking one per group is enough
+
+				int[] UIDs = group.stream().mapToInt(MethodInstance::getUid).distinct().sorted().toArray();
+				if (UIDs.length > 2 || UIDs.length == 2 && UIDs[0] != -1) {
+					throw new IllegalStateException("Inconsistent method hierachy naming: " + Arrays.toString(UIDs));
+				}
+
+				int id = UIDs[UIDs.length - 1];
+				int slot = task.methodGroups.size();
+				if (id == -1) {
+					if (hashed) {
+						UidClaim lowest = groupHashes.get(group);
+						methodClaims.add(new UidClaim(lowest.hash, lowest.namespace, claimed -> task.methodIDs[slot] = claimed));
+					} else {
+						id = nextMethodID;
+					}
+					nextMethodID++;
+
+					//Only groups given a new UID are recorded, apply gives it to every member even those from outside the inputs
+					glued.methods.addAll(group);
+				}
+
+				task.methodIDs[slot] = id;
+				task.methodGroups.add(group);
+			}
+
+			for (int i = 0; i < task.fields.size(); i++) {
+				FieldInstance field = task.fields.get(i);
+				assert field.getAllHierarchyMembers().size() == 1;
+
+				if (field.hasMatch() && named.contains(field.getMatch())) {
+					task.fieldIDs[i] = -1;
+				} else {
+					if (hashed) {
+						int slot = i;
+						fieldClaims.add(new UidClaim(task.fieldHashes[i], task.classHash, id -> task.fieldIDs[slot] = id));
+					} else {
+						task.fieldIDs[i] = nextFieldID;
+					}
+					nextFieldID++;
+					named.add(field);
+					glued.fields.add(field);
+				}
+			}
+		}
+
+		claimUids(usedClassIDs, classClaims);
+		claimUids(usedMethodIDs, methodClaims);
+		claimUids(usedFieldIDs, fieldClaims);
+
+		//Every group is only written by the class which first named it, so nothing overlaps
+		Matcher.runInParallel(work, GlueWork::apply, value -> progress.accept(0.5 + value / 2));
+
+		if (hashed) {
+			System.out.printf("Hashed glue IDs for %d classes, %d methods, %d fields%n", nextClassID - firstClassID, nextMethodID - firstMethodID, nextFieldID - firstFieldID);
+		} else {
+			System.out.printf("Generated glue IDs: %d classes, %d methods, %d fields%n", nextClassID, nextMethodID, nextFieldID);
+		}
+	}
+
+	private static boolean containsHierarchy(List<MethodInstance> group, MethodInstance method) {
+		Set<MethodInstance> members = Util.newIdentityHashSet();
+		members.addAll(group);
+		return members.containsAll(method.getAllHierarchyMembers());
+	}
+
+	private static class UidClaim {
+		//Identical members in different classes share a hash, so they're told apart by the hash of the class they're in
+		static final Comparator<UidClaim> ORDER = Comparator.<UidClaim>comparingInt(claim -> claim.hash).thenComparingInt(claim -> claim.namespace);
+		public final int hash, namespace;
+		public final IntConsumer assign;
+
+		public UidClaim(int hash, int namespace, IntConsumer assign) {
+			this.hash = hash;
+			this.namespace = namespace;
+			this.assign = assign;
+		}
+	}
+
+	private static void claimUids(Set<Integer> used, List<UidClaim> claims) {
+		//Claiming in hash order means who probes past a collision doesn't depend on obfuscated names, only exact ties fall back to the sorted order
+		claims.sort(UidClaim.ORDER);
+
+		for (UidClaim claim : claims) {
+			int id = claim.hash;
+
+			while (!used.add(id)) {
+				id = id == StructuralHash.MAX_UID ? 1 : id + 1;
+			}
+
+			claim.assign.accept(id);
+		}
+	}
+
+	public static void exportGlue(ClassEnvironment env, Path to, MappingFormat type, boolean serverFirst, Predicate<ClassInstance> aSkipper, Predicate<ClassInstance> bSkipper, DoubleConsumer progress) {
+		TinyWriter writer;
+		try {
+			Files.deleteIfExists(to);
+
+			switch (type) {
+			case Tiny:
+				writer = TinyWriter.normal(to);
+				break;
+
+			case CompressedTiny:
+				writer = TinyWriter.compressed(to);
+				break;
+
+			case TinyV2:
+				writer = TinyWriter.v2(to);
+				break;
+
+			default:
+				throw new IllegalStateException("Unexpected export type: " + type);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error opening glue export file at " + to, e);
+		}
+
+		List<ClassInstance> union = new ArrayList<>();
+		List<ClassInstance> serverOnly = new ArrayList<>();
+		List<ClassInstance> clientOnly = new ArrayList<>();
+		boolean validate = isValidating();
+		Set<ClassInstance> unionIndex = validate ? Util.newIdentityHashSet() : Collections.emptySet();
+
+		for (ClassInstance cls : serverFirst ? env.getClassesA() : env.getClassesB()) {
+			if ((serverFirst ? aSkipper : bSkipper).test(cls)) continue;
+
+			if (cls.hasMatch()) {
+				union.add(cls);
+				if (validate && !unionIndex.add(cls)) throw new IllegalStateException("Duplicate server class " + cls);
+			} else {
+				serverOnly.add(cls);
+			}
+		}
+		for (ClassInstance cls : serverFirst ? env.getClassesB() : env.getClassesA()) {
+			if ((serverFirst ? bSkipper : aSkipper).test(cls)) continue;
+
+			if (!cls.hasMatch()) {
+				clientOnly.add(cls);
+			} else if (validate && !unionIndex.contains(cls.getMatch())) {
+				throw new IllegalStateException(cls + " is matched to " + cls.getMatch() + " which isn't being exported");
+			}
+		}
+
+		union.sort(Comparator.comparing(ClassInstance::getName));
+		serverOnly.sort(Comparator.comparing(ClassInstance::getName));
+		clientOnly.sort(Comparator.comparing(ClassInstance::getName));
+
+		AsmRemapper serverNamer = new MappedUidRemapper(serverFirst ? env.getEnvA() : env.getEnvB());
+		AsmRemapper clientNamer = new MappedUidRemapper(serverFirst ? env.getEnvB() : env.getEnvA());
+
+		try {
+			BiConsumer<ClassInstance, GlueBuffer> unionExporter = (cls, shard) -> {
+				assert cls.isInput();
+
+				String className;
+				if (cls.isNameObfuscated()) {
+					assert cls.getUid() >= 0: "Missed UID for " + cls;
+					assert Objects.equals(cls.getName(NameType.UID_PLAIN), cls.getMatch().getName(NameType.UID_PLAIN));
+					assert cls.hasMappedName() == cls.getMatch().hasMappedName();
+					shard.acceptClass(className = serverNamer.map(cls.getName()), cls.getName(NameType.PLAIN), cls.getMatch().getName(NameType.PLAIN));
+				} else {
+					className = cls.getName();
+				}
+
+				for (MethodInstance method : cls.getMethods()) {
+					if (method.isNameObfuscated()) {
+						assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? aSkipper : bSkipper): "Missed UID for " + method;
+						shard.acceptMethod(className, serverNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), serverNamer.mapMethodDesc(method.getDesc()),
+								method.getName(NameType.PLAIN), method.hasMatch() ? method.getMatch().getName(NameType.PLAIN) : null);
+					}
+				}
+				for (MethodInstance method : cls.getMatch().getMethods()) {
+					if (!method.hasMatch() && method.isNameObfuscated()) {
+						assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? bSkipper : aSkipper): "Missed UID for " + method + " (class matched to " + cls + ')';
+						shard.acceptMethod(className, clientNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), clientNamer.mapMethodDesc(method.getDesc()), null, method.getName(NameType.PLAIN));
+					}
+				}
+
+				for (FieldInstance field : cls.getFields()) {
+					if (field.isNameObfuscated()) {
+						assert field.getUid() >= 0: "Missed UID for " + field;
+						shard.acceptField(className, serverNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), serverNamer.mapDesc(field.getDesc()),
+								field.getName(NameType.PLAIN), field.hasMatch() ? field.getMatch().getName(NameType.PLAIN) : null);
+					}
+				}
+				for (FieldInstance field : cls.getMatch().getFields()) {
+					if (!field.hasMatch() && field.isNameObfuscated()) {
+						assert field.getUid() >= 0: "Missed UID for " + field + " (class matched to " + cls + ')';
+						shard.acceptField(className, clientNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), clientNamer.mapDesc(field.getDesc()), null, field.getName(NameType.PLAIN));
+					}
+				}
+			};
+
+			BiConsumer<ClassInstance, GlueBuffer> serverExporter = (cls, shard) -> {
+				assert cls.isInput();
+
+				String className;
+				if (cls.isNameObfuscated()) {
+					assert cls.getUid() >= 0;
+					shard.acceptClass(className = serverNamer.map(cls.getName()), cls.getName(NameType.PLAIN), null);
+				} else {
+					className = cls.getName();
+				}
+
+				for (MethodInstance method : cls.getMethods()) {
+					if (method.isNameObfuscated()) {
+						assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? aSkipper : bSkipper);
+						shard.acceptMethod(className, serverNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), serverNamer.mapMethodDesc(method.getDesc()), method.getName(NameType.PLAIN), null);
+					}
+				}
+
+				for (FieldInstance field : cls.getFields()) {
+					if (field.isNameObfuscated()) {
+						assert field.getUid() >= 0;
+						shard.acceptField(className, serverNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), serverNamer.mapDesc(field.getDesc()), field.getName(NameType.PLAIN), null);
+					}
+				}
+			};
+
+			BiConsumer<ClassInstance, GlueBuffer> clientExporter = (cls, shard) -> {
+				assert cls.isInput();
+
+				String className;
+				if (cls.isNameObfuscated()) {
+					assert cls.getUid() >= 0;
+					shard.acceptClass(className = clientNamer.map(cls.getName()), null, cls.getName(NameType.PLAIN));
+				} else {
+					className = cls.getName();
+				}
+
+				for (MethodInstance method : cls.getMethods()) {
+					if (method.isNameObfuscated()) {
+						assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? bSkipper : aSkipper);
+						shard.acceptMethod(className, clientNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), clientNamer.mapMethodDesc(method.getDesc()), null, method.getName(NameType.PLAIN));
+					}
+				}
+
+				for (FieldInstance field : cls.getFields()) {
+					if (field.isNameObfuscated()) {
+						assert field.getUid() >= 0;
+						shard.acceptField(className, clientNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), clientNamer.mapDesc(field.getDesc()), null, field.getName(NameType.PLAIN));
+					}
+				}
+			};
+
+			//Unmatched classes which aren't obfuscated keep their names, so the same name can come from more than one list
+			//Each name's classes are written together so a v2 file only ever gets one block per class
+			Map<String, List<GlueClass>> byName = new LinkedHashMap<>();
+			addGlueClasses(byName, union, serverNamer, unionExporter);
+			addGlueClasses(byName, serverOnly, serverNamer, serverExporter);
+			addGlueClasses(byName, clientOnly, clientNamer, clientExporter);
+
+			List<GlueClass> classes = new ArrayList<>(union.size() + serverOnly.size() + clientOnly.size());
+			for (List<GlueClass> group : byName.values()) {
+				classes.addAll(group);
+			}
+
+			exportShards(classes, writer, progress);
+		} finally {
+			Util.closeSilently(writer);
+		}
+	}
+
+	private static class GlueClass {
+		public final ClassInstance cls;
+		public final BiConsumer<ClassInstance, GlueBuffer> exporter;
+
+		public GlueClass(ClassInstance cls, BiConsumer<ClassInstance, GlueBuffer> exporter) {
+			this.cls = cls;
+			this.exporter = exporter;
+		}
+	}
+
+	private static void addGlueClasses(Map<String, List<GlueClass>> byName, List<ClassInstance> classes, AsmRemapper namer, BiConsumer<ClassInstance, GlueBuffer> exporter) {
+		for (ClassInstance cls : classes) {
+			String name = cls.isNameObfuscated() ? namer.map(cls.getName()) : cls.getName();
+			byName.computeIfAbsent(name, k -> new ArrayList<>(1)).add(new GlueClass(cls, exporter));
+		}
+	}
+
+	//Checked on every export so it can be flipped on (or off) without restarting
+	private static boolean isValidating() {
+		String validate = System.getProperty(VALIDATE_PROPERTY);
+		return validate != null ? Boolean.parseBoolean(validate) : MergeExporter.class.desiredAssertionStatus();
+	}
+
+	private static class GlueBuffer {
+		private final List<Consumer<TinyWriter>> actions = new ArrayList<>();
+
+		public void acceptClass(String glue, String server, String client) {
+			actions.add(writer -> writer.acceptClass(glue, server, client));
+		}
+
+		public void acceptMethod(String glueClass, String glueName, String desc, String serverName, String clientName) {
+			actions.add(writer -> writer.acceptMethod(glueClass, glueName, desc, serverName, clientName));
+		}
+
+		public void acceptField(String glueClass, String glueName, String desc, String serverName, String clientName) {
+			actions.add(writer -> writer.acceptField(glueClass, glueName, desc, serverName, clientName));
+		}
+
+		public void writeTo(TinyWriter writer) {
+			for (Consumer<TinyWriter> action : actions) {
+				action.accept(writer);
+			}
+		}
+	}
+
+	private static void exportShards(List<GlueClass> classes, TinyWriter writer, DoubleConsumer progress) {
+		//Classes are named in parallel shards, then written back in their sorted order so the output is the same as doing it serially
+		Deque<Future<GlueBuffer>> pending = new ArrayDeque<>(MAX_SHARDS_IN_FLIGHT);
+		int next = 0, written = 0;
+
+		try {
+			while (next < classes.size() || !pending.isEmpty()) {
+				while (pending.size() < MAX_SHARDS_IN_FLIGHT && next < classes.size()) {
+					int end = Math.min(next + SHARD_SIZE, classes.size());
+					List<GlueClass> shard = classes.subList(next, end);
+					next = end;
+
+					pending.add(Matcher.threadPool.submit(() -> {
+						GlueBuffer out = new GlueBuffer();
+						for (GlueClass glue : shard) {
+							glue.exporter.accept(glue.cls, out);
+						}
+						return out;
+					}));
+				}
+
+				pending.remove().get().writeTo(writer);
+				written = Math.min(written + SHARD_SIZE, classes.size());
+				progress.accept(written / (double) classes.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted exporting glue", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException("Error exporting glue", cause);
+		} finally {
+			for (Future<GlueBuffer> task : pending) {
+				task.cancel(false);
+			}
+		}
+	}
+
+	public static void clearGlue(ClassEnvironment env, DoubleConsumer progress) {
+		GLUED.remove(env);
+
+		//Every obfuscated UID goes, wherever it came from
+		List<ClassInstance> classes = new ArrayList<>(env.getClasses());
+		Matcher.runInParallel(classes, cls -> {
+			assert cls.isInput();
+
+			if (cls.isNameObfuscated() && cls.getUid() >= 0) {
+				cls.setUid(-1);
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				if (field.isNameObfuscated() && field.getUid() >= 0) {
+					field.setUid(-1);
+				}
+			}
+		}, value -> progress.accept(value / 2));
+
+		//Hierarchies are shared between classes, so each is only collected once rather than for every obfuscated member
+		Set<List<MethodInstance>> seen = Util.newIdentityHashSet();
+		List<List<MethodInstance>> groups = new ArrayList<>();
+		for (Map.Entry<MethodInstance, List<MethodInstance>> entry : new MethodGroups(classes).groups().entrySet()) {
+			MethodInstance method = entry.getKey();
+
+			if (method.getCls().isInput() && method.isNameObfuscated() && method.getUid() >= 0 && seen.add(entry.getValue())) {
+				groups.add(entry.getValue());
+			}
+		}
+
+		Matcher.runInParallel(groups, group -> {
+			for (MethodInstance method : group) {
+				method.setUid(-1);
+			}
+		}, value -> progress.accept(0.5 + value / 2));
+	}
+
+	public static void clearAssignedGlue(ClassEnvironment env, DoubleConsumer progress) {
+		Glued glued;
+		synchronized (GLUED) {
+			glued = GLUED.remove(env);
+		}
+
+		if (glued != null && glued.isCurrent(env)) {
+			//Only the UIDs which were assigned, imported or loaded from a snapshot are reset, each exactly once
+			Matcher.runInParallel(new ArrayList<>(glued.classes), cls -> cls.setUid(-1), value -> progress.accept(value / 3));
+			Matcher.runInParallel(new ArrayList<>(glued.methods), method -> method.setUid(-1), value -> progress.accept((1 + value) / 3));
+			Matcher.runInParallel(new ArrayList<>(glued.fields), field -> field.setUid(-1), value -> progress.accept((2 + value) / 3));
+		} else {
+			//Nothing is known about where the current UIDs came from
+			clearGlue(env, progress);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package com.chocohead.merger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+
+import matcher.Matcher;
+import matcher.NameType;
+import matcher.type.ClassEnvironment;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.InputFile;
+import matcher.type.MemberInstance;
+import matcher.type.MethodInstance;
+
+public class MergeSnapshot {
+	private static final int MAGIC = 0x474C5545, VERSION = 1; //GLUE
+	private static final int CHECKSUM_LENGTH = 32;
+	private static final int NULL_STRING = 0xFFFF;
+
+	public static void save(ClassEnvironment env, Path to, DoubleConsumer progress) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(to), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(checksum(env.getInputFilesA()));
+			out.write(checksum(env.getInputFilesB()));
+
+			double total = env.getClassesA().size() + env.getClassesB().size();
+			int done = 0;
+
+			for (Collection<ClassInstance> classes : Arrays.asList(env.getClassesA(), env.getClassesB())) {
+				boolean sideA = classes == env.getClassesA();
+				out.writeInt((int) classes.stream().filter(ClassInstance::isInput).count());
+
+				for (ClassInstance cls : classes) {
+					progress.accept(done++ / total);
+					if (!cls.isInput()) continue;
+
+					//Matches are only written from the A side, the B side would only repeat them
+					writeString(out, cls.getId());
+					writeString(out, sideA && cls.hasMatch() ? cls.getMatch().getId() : null);
+					writeString(out, mappedName(cls));
+					out.writeInt(cls.getUid());
+
+					out.writeInt(cls.getMethods().length);
+					for (MethodInstance method : cls.getMethods()) {
+						writeMember(out, method, sideA);
+					}
+
+					out.writeInt(cls.getFields().length);
+					for (FieldInstance field : cls.getFields()) {
+						writeMember(out, field, sideA);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error writing snapshot to " + to, e);
+		}
+
+		progress.accept(1);
+	}
+
+	private static String mappedName(ClassInstance cls) {
+		if (!cls.hasMappedName()) return null;
+
+		//Nested classes are only ever given the inner part of their name
+		String name = cls.getName(NameType.MAPPED_PLAIN);
+		return cls.getOuterClass() != null && ClassInstance.hasOuterName(name) ? ClassInstance.getInnerName(name) : name;
+	}
+
+	private static void writeMember(DataOutputStream out, MemberInstance<?> member, boolean sideA) throws IOException {
+		writeString(out, member.getId());
+		writeString(out, sideA && member.hasMatch() ? member.getMatch().getId() : null);
+		writeString(out, member.hasMappedName() ? member.getName(NameType.MAPPED_PLAIN) : null);
+		out.writeInt(member.getUid());
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_STRING);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length >= NULL_STRING) throw new IOException("Name too long to snapshot: " + value);
+
+			out.writeShort(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static class MemberRecord {
+		public final String id, matchId, mappedName;
+		public final int uid;
+
+		MemberRecord(ByteBuffer in) {
+			id = readString(in);
+			matchId = readString(in);
+			mappedName = readString(in);
+			uid = in.getInt();
+		}
+	}
+
+	private static class ClassRecord extends MemberRecord {
+		public final MemberRecord[] methods, fields;
+
+		ClassRecord(ByteBuffer in) {
+			super(in);
+
+			methods = readMembers(in);
+			fields = readMembers(in);
+		}
+
+		private static MemberRecord[] readMembers(ByteBuffer in) {
+			MemberRecord[] out = new MemberRecord[in.getInt()];
+
+			for (int i = 0; i < out.length; i++) {
+				out[i] = new MemberRecord(in);
+			}
+
+			return out;
+		}
+	}
+
+	public static void load(Matcher matcher, Path from, DoubleConsumer progress) {
+		ClassEnvironment env = matcher.getEnv();
+		ClassRecord[][] sides = new ClassRecord[2][];
+
+		try {
+			//Read in whole rather than mapped, as a mapping holds the file open until collected which stops it being saved over on Windows
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(from));
+
+			if (in.getInt() != MAGIC) throw new IOException("Not a merge snapshot: " + from);
+			int version = in.getInt();
+			if (version != VERSION) throw new IOException("Unsupported snapshot version: " + version);
+
+			byte[] checksum = new byte[CHECKSUM_LENGTH];
+			in.get(checksum);
+			if (!Arrays.equals(checksum, checksum(env.getInputFilesA()))) throw new IllegalStateException("Snapshot was taken from a different A jar");
+			in.get(checksum);
+			if (!Arrays.equals(checksum, checksum(env.getInputFilesB()))) throw new IllegalStateException("Snapshot was taken from a different B jar");
+
+			//Everything is read before anything is applied, so a broken snapshot leaves the matcher as it was
+			for (int side = 0; side < sides.length; side++) {
+				ClassRecord[] classes = sides[side] = new ClassRecord[in.getInt()];
+
+				for (int i = 0; i < classes.length; i++) {
+					classes[i] = new ClassRecord(in);
+				}
+			}
+
+			if (in.hasRemaining()) throw new IOException("Trailing data after snapshot");
+		} catch (BufferUnderflowException e) {
+			throw new UncheckedIOException("Error reading snapshot from " + from, new EOFException("Snapshot is truncated"));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error reading snapshot from " + from, e);
+		}
+
+		int[] applied = new int[4]; //Classes, methods, fields then missing
+		MergeExporter.Glued glued = MergeExporter.gluedFor(env);
+		double total = sides[0].length + sides[1].length;
+		int done = 0;
+
+		for (int side = 0; side < sides.length; side++) {
+			Function<String, ClassInstance> lookup = side == 0 ? env::getLocalClsByIdA : env::getLocalClsByIdB;
+
+			for (ClassRecord record : sides[side]) {
+				progress.accept(done++ / total);
+
+				ClassInstance cls = lookup.apply(record.id);
+				if (cls == null || !cls.isInput()) {
+					applied[3]++;
+					continue;
+				}
+
+				if (record.matchId != null && !cls.hasMatch()) {
+					ClassInstance match = env.getLocalClsByIdB(record.matchId);
+
+					if (match != null && match.isInput() && !match.hasMatch()) {
+						matcher.match(cls, match);
+						applied[0]++;
+					} else {
+						applied[3]++;
+					}
+				}
+				if (record.mappedName != null && !cls.hasMappedName()) cls.setMappedName(record.mappedName);
+				if (record.uid >= 0 && cls.getUid() < 0) {
+					cls.setUid(record.uid);
+					glued.classes.add(cls);
+				}
+
+				for (MemberRecord member : record.methods) {
+					MethodInstance method = cls.getMethod(member.id);
+
+					if (method == null) {
+						applied[3]++;
+						continue;
+					}
+
+					if (member.matchId != null && !method.hasMatch() && cls.hasMatch()) {
+						MethodInstance match = cls.getMatch().getMethod(member.matchId);
+
+						if (match != null && !match.hasMatch()) {
+							matcher.match(method, match);
+							applied[1]++;
+						} else {
+							applied[3]++;
+						}
+					}
+					if (member.mappedName != null && !method.hasMappedName()) method.setMappedName(member.mappedName);
+					if (member.uid >= 0 && method.getUid() < 0) {
+						method.setUid(member.uid);
+						glued.methods.add(method);
+					}
+				}
+
+				for (MemberRecord member : record.fields) {
+					FieldInstance field = cls.getField(member.id);
+
+					if (field == null) {
+						applied[3]++;
+						continue;
+					}
+
+					if (member.matchId != null && !field.hasMatch() && cls.hasMatch()) {
+						FieldInstance match = cls.getMatch().getField(member.matchId);
+
+						if (match != null && !match.hasMatch()) {
+							matcher.match(field, match);
+							applied[2]++;
+						} else {
+							applied[3]++;
+						}
+					}
+					if (member.mappedName != null && !field.hasMappedName()) field.setMappedName(member.mappedName);
+					if (member.uid >= 0 && field.getUid() < 0) {
+						field.setUid(member.uid);
+						glued.fields.add(field);
+					}
+				}
+			}
+		}
+
+		progress.accept(1);
+		System.out.printf("Loaded snapshot: matched %d classes, %d methods and %d fields (%d entries couldn't be applied)%n", applied[0], applied[1], applied[2], applied[3]);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = Short.toUnsignedInt(in.getShort());
+		if (length == NULL_STRING) return null;
+
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] checksum(Collection<InputFile> inputs) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("JVM doesn't support SHA-256?", e);
+		}
+
+		for (InputFile input : inputs) {
+			Path path = input.hasPath() ? input.path : Paths.get(input.fileName);
+
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+				while (channel.read(buffer) >= 0) {
+					buffer.flip();
+					digest.update(buffer);
+					buffer.clear();
+				}
+			}
+		}
+
+		return digest.digest();
+	}
+}
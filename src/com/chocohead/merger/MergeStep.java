@@ -1,9 +1,14 @@
 package com.chocohead.merger;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.DoubleConsumer;
@@ -13,7 +18,6 @@ import java.util.stream.Collectors;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.MethodInsnNode;
@@ -32,15 +36,16 @@ import matcher.type.MethodVarInstance;
 public enum MergeStep {
 	AutoMatch("Apply auto-match") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
 			//matcher.autoMatchClasses(progress);
 			//Auto-merging everything makes the latter processes easier
 			matcher.autoMatchAll(progress);
+			stats.recount(); //No telling what has changed
 		}
 	},
 	MatchFix("Apply auto-match fix") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
 			List<ClassInstance> classes = env.getClassesA().stream()
 					.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() && !cls.isFullyMatched(false))
 					.collect(Collectors.toList());
@@ -63,217 +68,19 @@ public enum MergeStep {
 
 			//Unmatch everything that we've decided is incorrectly matched
 			if (!mismatches.isEmpty()) {
-				mismatches.forEach(matcher::unmatch);
+				mismatches.forEach(mismatch -> stats.unmatch(matcher, mismatch));
 			}
 		}
 	},
 	UsageMatch("Match by class usage") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
-			List<ClassInstance> classes = env.getClassesA().stream()
-					.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() /*&& cls.isFullyMatched(false)*/)
-					.collect(Collectors.toList());
-			Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>(classes.size());
-			Map<MethodInstance, MethodInstance> methodMatches = new ConcurrentHashMap<>(classes.size());
-			Map<FieldInstance, FieldInstance> fieldMatches = new ConcurrentHashMap<>(classes.size());
-
-			Matcher.runInParallel(classes, cls -> {
-				for (MethodInstance method : cls.getMethods()) {
-					//Make sure we've only matching methods that really exist
-					if (!method.isReal()) continue;
-
-					//assert method.hasMatch(): "Unmatched method in fully matched class: " + cls.getName() + '#' + method.getName() + method.getDesc();
-					//Fully matched classes can still have unmatched methods, let's just avoid them for now
-					if (!method.hasMatch()) continue;
-
-					MethodInstance matched = method.getMatch();
-					//The matched method should certainly exist too
-					assert matched.isReal();
-
-					if (!MethodCloseness.isCloseEnough(method, matched)) {
-						System.out.println("Unexpected method contents mismatch in " + cls.getName() + '#' + method.getName() + method.getDesc() + ", only matched with " + ClassifierUtil.compareInsns(method, matched));
-						continue;
-					}
-
-					InsnList methodIns = MethodCloseness.cloneWithoutFrames(method.getAsmNode().instructions);
-					InsnList matchedIns = MethodCloseness.cloneWithoutFrames(matched.getAsmNode().instructions);
-					assert methodIns.size() == matchedIns.size();
-
-					MethodVarInstance[] methodArgs = method.getArgs();
-					MethodVarInstance[] matchedArgs = matched.getArgs();
-					assert methodArgs.length == matchedArgs.length;
-
-					for (int i = 0; i < methodArgs.length; i++) {
-						ClassInstance clsA = methodArgs[i].getType();
-						ClassInstance clsB = matchedArgs[i].getType();
-
-						if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-							//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-							matches.put(clsA, clsB);
-						}
-					}
-
-					for (int i = 0; i < methodIns.size(); i++) {
-						AbstractInsnNode insnA = methodIns.get(i);
-						AbstractInsnNode insnB = matchedIns.get(i);
-						assert insnA.getType() == insnB.getType();
-						assert insnA.getOpcode() == insnB.getOpcode();
-
-						switch (insnA.getType()) {
-						case AbstractInsnNode.TYPE_INSN: {
-							TypeInsnNode a = (TypeInsnNode) insnA;
-							TypeInsnNode b = (TypeInsnNode) insnB;
-
-							ClassInstance clsA = env.getClsByNameA(a.desc);
-							ClassInstance clsB = env.getClsByNameB(b.desc);
-
-							assert clsA != null;
-							assert clsB != null;
-							if (!clsA.isNameObfuscated()) continue;
-
-							if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-								//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-								matches.put(clsA, clsB);
-							}
-							break;
-						}
-						case AbstractInsnNode.FIELD_INSN: {
-							FieldInsnNode a = (FieldInsnNode) insnA;
-							FieldInsnNode b = (FieldInsnNode) insnB;
-
-							ClassInstance clsA = env.getClsByNameA(a.owner);
-							ClassInstance clsB = env.getClsByNameB(b.owner);
-
-							assert clsA != null;
-							assert clsB != null;
-							if (!clsA.isNameObfuscated()) continue;
-
-							if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-								//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-								matches.put(clsA, clsB);
-							}
-
-							FieldInstance fieldA = clsA.resolveField(a.name, a.desc);
-							FieldInstance fieldB = clsB.resolveField(b.name, b.desc);
-
-							assert fieldA != null;
-							assert fieldB != null;
-
-							if (fieldA.getMatch() != fieldB && fieldMatches.get(fieldA) != fieldB) {
-								//System.out.println("Found new field match");
-								fieldMatches.put(fieldA, fieldB);
-							}
-							break;
-						}
-						case AbstractInsnNode.METHOD_INSN: {
-							MethodInsnNode a = (MethodInsnNode) insnA;
-							MethodInsnNode b = (MethodInsnNode) insnB;
-
-							ClassInstance clsA = env.getClsByNameA(a.owner);
-							ClassInstance clsB = env.getClsByNameB(b.owner);
-
-							assert clsA != null;
-							assert clsB != null;
-							if (!clsA.isNameObfuscated()) continue;
-
-							if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-								//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-								matches.put(clsA, clsB);
-							}
-
-							MethodInstance methodA = clsA.resolveMethod(a.name, a.desc, Util.isCallToInterface(a));
-							MethodInstance methodB = clsB.resolveMethod(b.name, b.desc, Util.isCallToInterface(b));
-
-							assert methodA != null;
-							assert methodB != null;
-
-							if (methodA.getMatch() != methodB && methodMatches.get(methodA) != methodB) {
-								if (!MethodCloseness.isCloseEnough(methodA, methodB)) {
-									System.out.println("Expected " + methodA + " and " + methodB + " to be equal, only matched with " + ClassifierUtil.compareInsns(methodA, methodB));
-								} else {
-									//System.out.println("Found new method match");
-									methodMatches.put(methodA, methodB);
-								}
-							}
-							break;
-						}
-						case AbstractInsnNode.LDC_INSN: {
-							LdcInsnNode a = (LdcInsnNode) insnA;
-							LdcInsnNode b = (LdcInsnNode) insnB;
-
-							Class<?> typeClsA = a.cst.getClass();
-							assert typeClsA == b.cst.getClass();
-
-							if (typeClsA == Type.class) {
-								Type typeA = (Type) a.cst;
-								Type typeB = (Type) b.cst;
-
-								assert typeA.getSort() == typeB.getSort();
-
-								switch (typeA.getSort()) {
-								case Type.ARRAY:
-								case Type.OBJECT:
-									ClassInstance clsA = env.getClsByIdA(typeA.getDescriptor());
-									ClassInstance clsB = env.getClsByIdB(typeB.getDescriptor());
-
-									assert clsA != null;
-									assert clsB != null;
-									if (!clsA.isNameObfuscated()) continue;
-
-									if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-										//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-										matches.put(clsA, clsB);
-									}
-								}
-							}
-							break;
-						}
-
-						default: break;
-						}
-					}
-				}
-
-				for (FieldInstance field : cls.getFields()) {
-					//Make sure we've only matching methods that really exist
-					if (!field.isReal()) continue;
-
-					//Fully matched classes can still have unmatched fields, let's just avoid them for now
-					if (!field.hasMatch()) continue;
-
-					FieldInstance matched = field.getMatch();
-					//The matched field should certainly exist too
-					assert matched.isReal();
-
-					ClassInstance clsA = field.getType();
-					ClassInstance clsB = matched.getType();
-					if (!clsA.isNameObfuscated()) continue;
-
-					if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
-						//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
-						matches.put(clsA, clsB);
-					}
-				}
-			}, progress::accept);
-
-			Matcher.sanitizeMatches(matches);
-			Matcher.sanitizeMatches(methodMatches);
-			Matcher.sanitizeMatches(fieldMatches);
-
-			for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
-				matcher.match(entry.getKey(), entry.getValue());
-			}
-			for (Map.Entry<MethodInstance, MethodInstance> entry : methodMatches.entrySet()) {
-				matcher.match(entry.getKey(), entry.getValue());
-			}
-			for (Map.Entry<FieldInstance, FieldInstance> entry : fieldMatches.entrySet()) {
-				matcher.match(entry.getKey(), entry.getValue());
-			}
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
+			matchByUsage(matcher, env, stats, env.getClassesA(), null, progress);
 		}
 	},
 	DetachWrongMethods("Apply mismatched method fix") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
 			List<ClassInstance> classes = env.getClassesA().stream()
 					.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch())
 					.collect(Collectors.toList());
@@ -297,20 +104,20 @@ public enum MergeStep {
 					MethodVarInstance[] matchedArgs = matched.getArgs();
 					assert methodArgs.length == matchedArgs.length;
 
-					InsnList methodIns = MethodCloseness.cloneWithoutFrames(method.getAsmNode().instructions);
-					InsnList matchedIns = MethodCloseness.cloneWithoutFrames(matched.getAsmNode().instructions);
+					MethodInstructions methodIns = MethodInstructions.of(method);
+					MethodInstructions matchedIns = MethodInstructions.of(matched);
 					assert methodIns.size() == matchedIns.size();
 				}
 			}, progress::accept);
 
 			if (!mismatches.isEmpty()) {
-				mismatches.forEach(matcher::unmatch);
+				mismatches.forEach(mismatch -> stats.unmatch(matcher, mismatch));
 			}
 		}
 	},
 	LineNumberMatch("Match by line numbers") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
 			List<ClassInstance> classes = env.getClassesA().stream()
 					.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() && !cls.isFullyMatched(false) && cls.getMethods().length > 0)
 					.collect(Collectors.toList());
@@ -326,10 +133,10 @@ public enum MergeStep {
 			Matcher.sanitizeMatches(matches);
 
 			if (!typeMatches.isEmpty()) {
-				typeMatches.forEach(matcher::match);
+				typeMatches.forEach((a, b) -> stats.match(matcher, a, b));
 			}
 			if (!matches.isEmpty()) {
-				matches.forEach(matcher::match);
+				matches.forEach((a, b) -> stats.match(matcher, a, b));
 			}
 		}
 
@@ -383,55 +190,49 @@ public enum MergeStep {
 			}
 
 			for (MethodMatchSystem system : systems) {
+				//Candidates only ever match forwards, so each fingerprint's positions are kept in ascending order
+				Map<MethodFingerprint, List<Integer>> index = new HashMap<>();
+				for (int i = 0; i < system.matchMethods.size(); i++) {
+					MethodInstance matchMethod = system.matchMethods.get(i);
+					if (!matchMethod.isReal()) continue;
+
+					index.computeIfAbsent(MethodFingerprint.ofB(matchMethod), k -> new ArrayList<>()).add(i);
+				}
 				int end = 0;
 
 				on: for (MethodInstance method : system.methods) {
-					MethodVarInstance[] methodArgs = method.getArgs();
-					InsnList methodIns = MethodCloseness.cloneWithoutFrames(method.getAsmNode().instructions);
-
-					off: for (int i = end; i < system.matchMethods.size(); i++) {
-						MethodInstance matchMethod = system.matchMethods.get(i);
-						if (matchMethod.getArgs().length != methodArgs.length) continue;
-
-						ClassInstance returnType = matchMethod.getRetType();
-						if (returnType.hasMatch() && returnType.getMatch() != method.getRetType()) continue;
-						if (method.getRetType().hasMatch() && method.getRetType().getMatch() != returnType) continue;
-
-						InsnList matchedIns = MethodCloseness.cloneWithoutFrames(matchMethod.getAsmNode().instructions);
-						if (methodIns.size() != matchedIns.size()) continue;
-
-						int seenLines = 0;
-						for (int insn = 0; insn < methodIns.size(); insn++) {
-							AbstractInsnNode insnA = methodIns.get(insn);
-							AbstractInsnNode insnB = matchedIns.get(insn);
-							assert insnA.getType() == insnB.getType(): "Mismatch between " + method + " and " + matchMethod + ' ' + insn + " in: " + insnA + " vs " + insnB;
-							assert insnA.getOpcode() == insnB.getOpcode(): "Mismatch between " + method + " and " + matchMethod + ' ' + insn + " in: " + insnA + " vs " + insnB;
-
-							if (insnA.getType() == AbstractInsnNode.LINE) {
-								seenLines++;
-								//Line numbers will always match up for matching methods
-								if (((LineNumberNode) insnA).line != ((LineNumberNode) insnB).line) continue off;
-							}
-						}
-						if (seenLines <= 0) System.out.println("Matching " + method + " to " + matchMethod + " without line information");
+					List<Integer> candidates = method.isReal() ? index.get(MethodFingerprint.ofA(method)) : null;
 
-						if (method.getParents().size() == 1) {
-							assert matchMethod.getParents().size() == 1;
-							MethodInstance parent = method.getParents().iterator().next();
-							MethodInstance matchParent = matchMethod.getParents().iterator().next();
+					if (candidates != null) {
+						MethodInstructions methodIns = MethodInstructions.of(method);
 
-							if (parent.getCls().hasMatch()) {
-								assert parent.getCls().getMatch() == matchParent.getCls(): "Mismatched " + parent.getCls() + " to " + matchParent.getCls() + " (expected " + parent.getCls().getMatch() + ')';
-							} else {
-								typeMatches.put(parent.getCls(), matchParent.getCls());
+						for (int i : candidates) {
+							if (i < end) continue;
+
+							MethodInstance matchMethod = system.matchMethods.get(i);
+							MethodInstructions matchedIns = MethodInstructions.of(matchMethod);
+							//Line numbers will always match up for matching methods, check in case the fingerprints collided
+							if (!methodIns.linesMatch(matchedIns)) continue;
+							if (methodIns.getLineCount() <= 0) System.out.println("Matching " + method + " to " + matchMethod + " without line information");
+
+							if (method.getParents().size() == 1) {
+								assert matchMethod.getParents().size() == 1;
+								MethodInstance parent = method.getParents().iterator().next();
+								MethodInstance matchParent = matchMethod.getParents().iterator().next();
+
+								if (parent.getCls().hasMatch()) {
+									assert parent.getCls().getMatch() == matchParent.getCls(): "Mismatched " + parent.getCls() + " to " + matchParent.getCls() + " (expected " + parent.getCls().getMatch() + ')';
+								} else {
+									typeMatches.put(parent.getCls(), matchParent.getCls());
+								}
+
+								matches.put(parent, matchParent);
 							}
 
-							matches.put(parent, matchParent);
+							matches.put(method, matchMethod);
+							end = i + 1;
+							continue on;
 						}
-
-						matches.put(method, matchMethod);
-						end = i + 1;
-						continue on;
 					}
 
 					System.out.println("Can't find a match for " + method);
@@ -441,7 +242,7 @@ public enum MergeStep {
 	},
 	HeirachyMethodMatch("Match by method ownership") {
 		@Override
-		protected void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress) {
+		protected void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress) {
 			List<ClassInstance> classes = env.getClassesA().stream()
 					.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() && cls.getMethods().length > 0)
 					.collect(Collectors.toList());
@@ -478,7 +279,7 @@ public enum MergeStep {
 			Matcher.sanitizeMatches(matches);
 
 			if (!matches.isEmpty()) {
-				matches.forEach(matcher::match);
+				matches.forEach((a, b) -> stats.match(matcher, a, b));
 			}
 		}
 	};
@@ -489,13 +290,349 @@ public enum MergeStep {
 		this.name = name;
 	}
 
+	//Returns the classes which could produce further matches from the new matches made
+	//contested is B side instances which multiple A side instances have previously been matched to, or null if there is no previous pass
+	static Set<ClassInstance> matchByUsage(Matcher matcher, ClassEnvironment env, MatchStatistics stats, Collection<ClassInstance> from, Set<Object> contested, DoubleConsumer progress) {
+		List<ClassInstance> classes = from.stream()
+				.filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() /*&& cls.isFullyMatched(false)*/)
+				.collect(Collectors.toList());
+		Map<ClassInstance, ClassInstance> matches = new ConcurrentHashMap<>(classes.size());
+		Map<MethodInstance, MethodInstance> methodMatches = new ConcurrentHashMap<>(classes.size());
+		Map<FieldInstance, FieldInstance> fieldMatches = new ConcurrentHashMap<>(classes.size());
+
+		Matcher.runInParallel(classes, cls -> {
+			for (MethodInstance method : cls.getMethods()) {
+				//Make sure we've only matching methods that really exist
+				if (!method.isReal()) continue;
+
+				//assert method.hasMatch(): "Unmatched method in fully matched class: " + cls.getName() + '#' + method.getName() + method.getDesc();
+				//Fully matched classes can still have unmatched methods, let's just avoid them for now
+				if (!method.hasMatch()) continue;
+
+				MethodInstance matched = method.getMatch();
+				//The matched method should certainly exist too
+				assert matched.isReal();
+
+				if (!MethodCloseness.isCloseEnough(method, matched)) {
+					System.out.println("Unexpected method contents mismatch in " + cls.getName() + '#' + method.getName() + method.getDesc() + ", only matched with " + ClassifierUtil.compareInsns(method, matched));
+					continue;
+				}
+
+				MethodInstructions methodIns = MethodInstructions.of(method);
+				MethodInstructions matchedIns = MethodInstructions.of(matched);
+				assert methodIns.size() == matchedIns.size();
+
+				MethodVarInstance[] methodArgs = method.getArgs();
+				MethodVarInstance[] matchedArgs = matched.getArgs();
+				assert methodArgs.length == matchedArgs.length;
+
+				for (int i = 0; i < methodArgs.length; i++) {
+					ClassInstance clsA = methodArgs[i].getType();
+					ClassInstance clsB = matchedArgs[i].getType();
+
+					if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+						//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+						matches.put(clsA, clsB);
+					}
+				}
+
+				for (int i = 0; i < methodIns.size(); i++) {
+					AbstractInsnNode insnA = methodIns.get(i);
+					AbstractInsnNode insnB = matchedIns.get(i);
+					assert insnA.getType() == insnB.getType();
+					assert insnA.getOpcode() == insnB.getOpcode();
+
+					switch (insnA.getType()) {
+					case AbstractInsnNode.TYPE_INSN: {
+						TypeInsnNode a = (TypeInsnNode) insnA;
+						TypeInsnNode b = (TypeInsnNode) insnB;
+
+						ClassInstance clsA = env.getClsByNameA(a.desc);
+						ClassInstance clsB = env.getClsByNameB(b.desc);
+
+						assert clsA != null;
+						assert clsB != null;
+						if (!clsA.isNameObfuscated()) continue;
+
+						if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+							//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+							matches.put(clsA, clsB);
+						}
+						break;
+					}
+					case AbstractInsnNode.FIELD_INSN: {
+						FieldInsnNode a = (FieldInsnNode) insnA;
+						FieldInsnNode b = (FieldInsnNode) insnB;
+
+						ClassInstance clsA = env.getClsByNameA(a.owner);
+						ClassInstance clsB = env.getClsByNameB(b.owner);
+
+						assert clsA != null;
+						assert clsB != null;
+						if (!clsA.isNameObfuscated()) continue;
+
+						if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+							//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+							matches.put(clsA, clsB);
+						}
+
+						FieldInstance fieldA = clsA.resolveField(a.name, a.desc);
+						FieldInstance fieldB = clsB.resolveField(b.name, b.desc);
+
+						assert fieldA != null;
+						assert fieldB != null;
+
+						if (fieldA.getMatch() != fieldB && fieldMatches.get(fieldA) != fieldB) {
+							//System.out.println("Found new field match");
+							fieldMatches.put(fieldA, fieldB);
+						}
+						break;
+					}
+					case AbstractInsnNode.METHOD_INSN: {
+						MethodInsnNode a = (MethodInsnNode) insnA;
+						MethodInsnNode b = (MethodInsnNode) insnB;
+
+						ClassInstance clsA = env.getClsByNameA(a.owner);
+						ClassInstance clsB = env.getClsByNameB(b.owner);
+
+						assert clsA != null;
+						assert clsB != null;
+						if (!clsA.isNameObfuscated()) continue;
+
+						if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+							//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+							matches.put(clsA, clsB);
+						}
+
+						MethodInstance methodA = clsA.resolveMethod(a.name, a.desc, Util.isCallToInterface(a));
+						MethodInstance methodB = clsB.resolveMethod(b.name, b.desc, Util.isCallToInterface(b));
+
+						assert methodA != null;
+						assert methodB != null;
+
+						if (methodA.getMatch() != methodB && methodMatches.get(methodA) != methodB) {
+							if (!MethodCloseness.isCloseEnough(methodA, methodB)) {
+								System.out.println("Expected " + methodA + " and " + methodB + " to be equal, only matched with " + ClassifierUtil.compareInsns(methodA, methodB));
+							} else {
+								//System.out.println("Found new method match");
+								methodMatches.put(methodA, methodB);
+							}
+						}
+						break;
+					}
+					case AbstractInsnNode.LDC_INSN: {
+						LdcInsnNode a = (LdcInsnNode) insnA;
+						LdcInsnNode b = (LdcInsnNode) insnB;
+
+						Class<?> typeClsA = a.cst.getClass();
+						assert typeClsA == b.cst.getClass();
+
+						if (typeClsA == Type.class) {
+							Type typeA = (Type) a.cst;
+							Type typeB = (Type) b.cst;
+
+							assert typeA.getSort() == typeB.getSort();
+
+							switch (typeA.getSort()) {
+							case Type.ARRAY:
+							case Type.OBJECT:
+								ClassInstance clsA = env.getClsByIdA(typeA.getDescriptor());
+								ClassInstance clsB = env.getClsByIdB(typeB.getDescriptor());
+
+								assert clsA != null;
+								assert clsB != null;
+								if (!clsA.isNameObfuscated()) continue;
+
+								if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+									//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+									matches.put(clsA, clsB);
+								}
+							}
+						}
+						break;
+					}
+
+					default: break;
+					}
+				}
+			}
+
+			for (FieldInstance field : cls.getFields()) {
+				//Make sure we've only matching methods that really exist
+				if (!field.isReal()) continue;
+
+				//Fully matched classes can still have unmatched fields, let's just avoid them for now
+				if (!field.hasMatch()) continue;
+
+				FieldInstance matched = field.getMatch();
+				//The matched field should certainly exist too
+				assert matched.isReal();
+
+				ClassInstance clsA = field.getType();
+				ClassInstance clsB = matched.getType();
+				if (!clsA.isNameObfuscated()) continue;
+
+				if (clsA.getMatch() != clsB && matches.get(clsA) != clsB) {
+					//System.out.println("Found new class match [" + clsA.getName() + " => " + clsB.getName() + "], previously mapped to " + (clsA.hasMatch() ? cls.getMatch().getName() : "nothing"));
+					matches.put(clsA, clsB);
+				}
+			}
+		}, progress::accept);
+
+		sanitizeMatches(matches, contested);
+		sanitizeMatches(methodMatches, contested);
+		sanitizeMatches(fieldMatches, contested);
+
+		Set<ClassInstance> changed = Util.newIdentityHashSet();
+		for (Map.Entry<ClassInstance, ClassInstance> entry : matches.entrySet()) {
+			ClassInstance cls = entry.getKey();
+			boolean fresh = !cls.hasMatch() && !entry.getValue().hasMatch();
+
+			stats.match(matcher, cls, entry.getValue());
+
+			if (fresh && cls.getMatch() == entry.getValue()) {
+				//The class can now be searched itself, as can anything which mentions it
+				changed.add(cls);
+				for (MethodInstance method : cls.getMethodTypeRefs()) changed.add(method.getCls());
+				for (FieldInstance field : cls.getFieldTypeRefs()) changed.add(field.getCls());
+			}
+		}
+		for (Map.Entry<MethodInstance, MethodInstance> entry : methodMatches.entrySet()) {
+			MethodInstance method = entry.getKey();
+			boolean fresh = !method.hasMatch() && !entry.getValue().hasMatch();
+
+			stats.match(matcher, method, entry.getValue());
+
+			if (fresh && method.getMatch() == entry.getValue()) {
+				//Matching a method can match the rest of its hierarchy too
+				for (MethodInstance member : method.getAllHierarchyMembers()) changed.add(member.getCls());
+				for (MethodInstance caller : method.getRefsIn()) changed.add(caller.getCls());
+			}
+		}
+		for (Map.Entry<FieldInstance, FieldInstance> entry : fieldMatches.entrySet()) {
+			FieldInstance field = entry.getKey();
+			boolean fresh = !field.hasMatch() && !entry.getValue().hasMatch();
+
+			stats.match(matcher, field, entry.getValue());
+
+			if (fresh && field.getMatch() == entry.getValue()) {
+				changed.add(field.getCls());
+				for (MethodInstance reader : field.getReadRefs()) changed.add(reader.getCls());
+				for (MethodInstance writer : field.getWriteRefs()) changed.add(writer.getCls());
+			}
+		}
+
+		return changed;
+	}
+
+	private static <T> void sanitizeMatches(Map<T, T> matches, Set<Object> contested) {
+		if (contested == null) {
+			Matcher.sanitizeMatches(matches);
+		} else {
+			//Anything ambiguous in an earlier pass would have stayed ambiguous had every class been rerun
+			matches.values().removeIf(contested::contains);
+			Map<T, T> proposed = new IdentityHashMap<>(matches);
+
+			Matcher.sanitizeMatches(matches);
+
+			if (proposed.size() != matches.size()) {
+				proposed.forEach((key, value) -> {
+					if (!matches.containsKey(key)) contested.add(value);
+				});
+			}
+		}
+	}
+
+	public static void runUntilComplete(Matcher matcher, DoubleConsumer progress) {
+		ClassEnvironment env = matcher.getEnv();
+		MatchStatistics stats = new MatchStatistics(env.getClassesA());
+
+		for (MergeStep step : MergeStep.values()) {
+			int previousUnmatched = stats.getUnmatchedClasses();
+
+			step.run(matcher, stats, progress::accept);
+
+			int unmatched = stats.getUnmatchedClasses();
+			System.out.println("Matched " + Math.abs(previousUnmatched - unmatched) + " classes (" + unmatched + " left unmatched, " + env.getClassesA().size() + " total)");
+		}
+
+		UsageFixpoint usages = new UsageFixpoint(matcher, stats);
+		do {
+			int previousUnmatchedClasses = stats.getUnmatchedClasses();
+
+			usages.runPass(progress::accept);
+
+			int unmatchedClasses = stats.getUnmatchedClasses();
+			System.out.println("Matched " + (unmatchedClasses - previousUnmatchedClasses) + " classes (" + unmatchedClasses + " left unmatched, " + env.getClassesA().size() + " total), " + usages.queued() + " to recheck");
+		} while (!usages.isComplete());
+
+		assert assertMatches(env);
+	}
+
+	private static boolean assertMatches(ClassEnvironment env) {
+		List<ClassInstance> classes = env.getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() && cls.getMethods().length > 0).collect(Collectors.toList());
+		Set<MethodInstance> mismatches = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+		Matcher.runInParallel(classes, cls -> {
+			for (MethodInstance method : cls.getMethods()) {
+				if (!method.hasMatch()) continue;
+				assert method.isReal();
+
+				MethodInstance match = method.getMatch();
+				assert match.isReal();
+
+				MethodInstructions methodIns = MethodInstructions.of(method);
+				MethodInstructions matchedIns = MethodInstructions.of(match);
+
+				if (methodIns.size() != matchedIns.size()) {
+					mismatches.add(method);
+					continue;
+				}
+
+				for (int insn = 0; insn < methodIns.size(); insn++) {
+					AbstractInsnNode insnA = methodIns.get(insn);
+					AbstractInsnNode insnB = matchedIns.get(insn);
+					assert insnA.getType() == insnB.getType(): "Mismatch between " + method + " and " + match + ' ' + insn + " in: " + insnA + " vs " + insnB;
+					assert insnA.getOpcode() == insnB.getOpcode(): "Mismatch between " + method + " and " + match + ' ' + insn + " in: " + insnA + " vs " + insnB;
+
+					if (insnA.getType() == AbstractInsnNode.LINE) {
+						if (((LineNumberNode) insnA).line != ((LineNumberNode) insnB).line)  {
+							mismatches.add(method);
+							break;
+						}
+					}
+				}
+			}
+		}, progress -> {});
+
+		if (!mismatches.isEmpty()) {
+			System.out.println("Found mismatched methods after full pass:");
+
+			for (MethodInstance method : mismatches) {
+				System.out.println('\t' + method.toString() + " => " + method.getMatch());
+			}
+
+			return false;
+		} else {
+			return true;
+		}
+	}
+
 	public void run(Gui gui, DoubleConsumer progress) {
-		run(gui.getMatcher(), gui.getEnv(), progress);
+		run(gui, MatchStatistics.untracked(), progress);
+	}
+
+	public void run(Gui gui, MatchStatistics stats, DoubleConsumer progress) {
+		run(gui.getMatcher(), gui.getEnv(), stats, progress);
 	}
 
 	public void run(Matcher matcher, DoubleConsumer progress) {
-		run(matcher, matcher.getEnv(), progress);
+		run(matcher, MatchStatistics.untracked(), progress);
+	}
+
+	public void run(Matcher matcher, MatchStatistics stats, DoubleConsumer progress) {
+		run(matcher, matcher.getEnv(), stats, progress);
 	}
 
-	protected abstract void run(Matcher matcher, ClassEnvironment env, DoubleConsumer progress);
+	protected abstract void run(Matcher matcher, ClassEnvironment env, MatchStatistics stats, DoubleConsumer progress);
 }
\ No newline at end of file
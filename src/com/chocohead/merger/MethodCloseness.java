@@ -1,22 +1,13 @@
 package com.chocohead.merger;
 
-import java.util.IdentityHashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.function.Predicate;
-
 import org.objectweb.asm.Handle;
-import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.IincInsnNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.IntInsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
-import org.objectweb.asm.tree.JumpInsnNode;
-import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LookupSwitchInsnNode;
@@ -24,7 +15,6 @@ import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MultiANewArrayInsnNode;
 import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.TypeInsnNode;
-import org.objectweb.asm.tree.VarInsnNode;
 
 import matcher.Util;
 import matcher.classifier.ClassifierUtil;
@@ -38,59 +28,25 @@ public class MethodCloseness {
 	public static boolean isCloseEnough(MethodInstance a, MethodInstance b) {
 		if (!a.isReal() || !b.isReal()) return false;
 
-		InsnList ilA = cloneWithoutFrames(a.getAsmNode().instructions);
-		InsnList ilB = cloneWithoutFrames(b.getAsmNode().instructions);
-		if (ilA.size() != ilB.size()) return false;
+		MethodInstructions insnsA = MethodInstructions.of(a);
+		MethodInstructions insnsB = MethodInstructions.of(b);
+		if (insnsA.size() != insnsB.size()) return false;
 
-		for (int i = 0; i < ilA.size(); i++) {
-			if (!instructionsMatch(ilA.get(i), ilB.get(i), ilA, ilB, a, b, a.getEnv().getGlobal())) {
+		for (int i = 0; i < insnsA.size(); i++) {
+			if (!instructionsMatch(insnsA, insnsB, i, a.getEnv().getGlobal())) {
 				//Not necessarily true as we test line numbers which ClassifierUtil ignores
 				//assert ClassifierUtil.compareInsns(a, b) < 1 - 1e-6;
 				return false;
 			}
 		}
 
-		assert ilA.size() != a.getAsmNode().instructions.size() || ilB.size() != b.getAsmNode().instructions.size() || ClassifierUtil.compareInsns(a, b) >= 1 - 1e-6;
+		assert insnsA.isStripped() || insnsB.isStripped() || ClassifierUtil.compareInsns(a, b) >= 1 - 1e-6;
 		return true;
 	}
 
-	public static InsnList cloneWithoutFrames(InsnList list) {
-		return clone(list, insn -> insn.getType() != AbstractInsnNode.FRAME && insn.getType() != AbstractInsnNode.LABEL);
-	}
-
-	private static InsnList clone(InsnList list, Predicate<AbstractInsnNode> filter) {
-		Map<LabelNode, LabelNode> clonedLabels = new IdentityHashMap<>();
-		Map<Label, Label> trueLabels = new IdentityHashMap<>();
-
-		boolean seenFrame = false;
-		for (Iterator<AbstractInsnNode> it = list.iterator(); it.hasNext();) {
-			AbstractInsnNode insn = it.next();
-
-			switch (insn.getType()) {
-			case AbstractInsnNode.LABEL:
-				LabelNode node = (LabelNode) insn;
-
-				clonedLabels.put(node, new LabelNode(trueLabels.computeIfAbsent(node.getLabel(), k -> new Label())));
-				break;
-
-			case AbstractInsnNode.FRAME:
-				seenFrame = true;
-				break;
-			}
-		}
-		if (!seenFrame && clonedLabels.isEmpty()) return list; //Only clone the list if we have to
-
-		InsnList out = new InsnList();
-		for (Iterator<AbstractInsnNode> it = list.iterator(); it.hasNext();) {
-			AbstractInsnNode insn = it.next();
-
-			if (filter.test(insn)) out.add(insn.clone(clonedLabels));
-		}
-
-		return out;
-	}
-
-	private static boolean instructionsMatch(AbstractInsnNode insnA, AbstractInsnNode insnB, InsnList listA, InsnList listB, MethodInstance mthA, MethodInstance mthB, ClassEnvironment env) {
+	private static boolean instructionsMatch(MethodInstructions insnsA, MethodInstructions insnsB, int index, ClassEnvironment env) {
+		AbstractInsnNode insnA = insnsA.get(index);
+		AbstractInsnNode insnB = insnsB.get(index);
 		if (insnA.getOpcode() != insnB.getOpcode()) return false;
 
 		switch (insnA.getType()) {
@@ -102,16 +58,11 @@ public class MethodCloseness {
 		}
 
 		case AbstractInsnNode.VAR_INSN: {
-			VarInsnNode a = (VarInsnNode) insnA;
-			VarInsnNode b = (VarInsnNode) insnB;
+			MethodVarInstance varA = insnsA.getVar(index);
+			MethodVarInstance varB = insnsB.getVar(index);
 
-			if (mthA != null && mthB != null) {
-				MethodVarInstance varA = mthA.getArgOrVar(a.var, listA.indexOf(insnA));
-				MethodVarInstance varB = mthB.getArgOrVar(b.var, listB.indexOf(insnB));
-
-				if (varA != null && varB != null) {
-					return ClassifierUtil.checkPotentialEquality(varA, varB);
-				}
+			if (varA != null && varB != null) {
+				return ClassifierUtil.checkPotentialEquality(varA, varB);
 			}
 
 			break;
@@ -176,11 +127,8 @@ public class MethodCloseness {
 		}
 
 		case AbstractInsnNode.JUMP_INSN: {
-			JumpInsnNode a = (JumpInsnNode) insnA;
-			JumpInsnNode b = (JumpInsnNode) insnB;
-
 			// check if the 2 jumps have the same direction
-			return Integer.signum(listA.indexOf(a.label) - listA.indexOf(a)) == Integer.signum(listB.indexOf(b.label) - listB.indexOf(b));
+			return insnsA.getJumpDirection(index) == insnsB.getJumpDirection(index);
 		}
 
 		case AbstractInsnNode.LABEL: {
@@ -220,13 +168,11 @@ public class MethodCloseness {
 
 			if (a.incr != b.incr) return false;
 
-			if (mthA != null && mthB != null) {
-				MethodVarInstance varA = mthA.getArgOrVar(a.var, listA.indexOf(insnA));
-				MethodVarInstance varB = mthB.getArgOrVar(b.var, listB.indexOf(insnB));
+			MethodVarInstance varA = insnsA.getVar(index);
+			MethodVarInstance varB = insnsB.getVar(index);
 
-				if (varA != null && varB != null) {
-					return ClassifierUtil.checkPotentialEquality(varA, varB);
-				}
+			if (varA != null && varB != null) {
+				return ClassifierUtil.checkPotentialEquality(varA, varB);
 			}
 
 			break;
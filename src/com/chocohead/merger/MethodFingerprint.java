@@ -0,0 +1,51 @@
+package com.chocohead.merger;
+
+import matcher.type.ClassInstance;
+import matcher.type.MethodInstance;
+
+public final class MethodFingerprint {
+	public static MethodFingerprint ofA(MethodInstance method) {
+		//Unmatched return types can't be compared across sides, so are only equal to other unmatched return types
+		return of(method, method.getRetType().getMatch());
+	}
+
+	public static MethodFingerprint ofB(MethodInstance method) {
+		ClassInstance returnType = method.getRetType();
+		return of(method, returnType.hasMatch() ? returnType : null);
+	}
+
+	private static MethodFingerprint of(MethodInstance method, ClassInstance returnType) {
+		MethodInstructions insns = MethodInstructions.of(method);
+		return new MethodFingerprint(insns.size(), insns.getOpcodeHash(), insns.getLineHash(), method.getArgs().length, returnType);
+	}
+
+	private final int size, opcodeHash, lineHash, args;
+	private final ClassInstance returnType;
+
+	private MethodFingerprint(int size, int opcodeHash, int lineHash, int args, ClassInstance returnType) {
+		this.size = size;
+		this.opcodeHash = opcodeHash;
+		this.lineHash = lineHash;
+		this.args = args;
+		this.returnType = returnType;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof MethodFingerprint)) return false;
+
+		MethodFingerprint that = (MethodFingerprint) obj;
+		return size == that.size && opcodeHash == that.opcodeHash && lineHash == that.lineHash && args == that.args && returnType == that.returnType;
+	}
+
+	@Override
+	public int hashCode() {
+		return (((size * 31 + opcodeHash) * 31 + lineHash) * 31 + args) * 31 + System.identityHashCode(returnType);
+	}
+
+	@Override
+	public String toString() {
+		return "MethodFingerprint[size=" + size + ", opcodes=" + Integer.toHexString(opcodeHash) + ", lines=" + Integer.toHexString(lineHash) + ", args=" + args + ", returns=" + returnType + ']';
+	}
+}
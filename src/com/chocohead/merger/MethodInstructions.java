@@ -0,0 +1,161 @@
+package com.chocohead.merger;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import matcher.Util;
+import matcher.type.MethodInstance;
+import matcher.type.MethodVarInstance;
+
+public final class MethodInstructions {
+	//Nothing cached may lead back to the MethodInstance, otherwise the key would never be released
+	private static final Map<MethodInstance, MethodInstructions> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+	public static MethodInstructions of(MethodInstance method) {
+		MethodNode node = method.getAsmNode();
+		if (node == null) throw new IllegalArgumentException("Method without an ASM node: " + method);
+
+		MethodInstructions out = CACHE.get(method);
+		if (out == null || out.isStale(node)) {
+			//Building is cheap enough that racing threads doing it twice is preferable to holding the lock for it
+			CACHE.put(method, out = new MethodInstructions(method, node));
+		}
+
+		return out;
+	}
+
+	private final Reference<MethodInstance> method;
+	private final MethodNode node;
+	private final InsnList list;
+	private final int rawSize;
+	private final AbstractInsnNode[] insns;
+	private final byte[] jumps;
+	private final int[] vars, varPositions;
+	private final int[] lines;
+	private final int opcodeHash;
+
+	MethodInstructions(MethodInstance method, MethodNode node) {
+		this.method = new WeakReference<>(method);
+		this.node = node;
+		list = node.instructions;
+		rawSize = list.size();
+
+		int size = 0, lineCount = 0, opcodeHash = 1;
+		int[] lines = new int[rawSize];
+		AbstractInsnNode[] insns = new AbstractInsnNode[rawSize];
+		byte[] jumps = new byte[rawSize];
+		int[] vars = new int[rawSize], varPositions = new int[rawSize];
+		Arrays.fill(vars, -1);
+
+		//Jumps go backwards if their label has already been passed, avoiding InsnList#indexOf rebuilding its cache
+		Set<LabelNode> seenLabels = Util.newIdentityHashSet();
+
+		int index = 0;
+		for (AbstractInsnNode insn = list.getFirst(); insn != null; insn = insn.getNext(), index++) {
+			switch (insn.getType()) {
+			case AbstractInsnNode.LABEL:
+				seenLabels.add((LabelNode) insn);
+				continue; //Only needed to tell which way jumps go
+
+			case AbstractInsnNode.FRAME:
+				continue; //Not of any interest comparing methods
+
+			case AbstractInsnNode.JUMP_INSN:
+				jumps[size] = seenLabels.contains(((JumpInsnNode) insn).label) ? (byte) -1 : (byte) 1;
+				break;
+
+			case AbstractInsnNode.VAR_INSN:
+				vars[size] = ((VarInsnNode) insn).var;
+				varPositions[size] = index;
+				break;
+
+			case AbstractInsnNode.IINC_INSN:
+				vars[size] = ((IincInsnNode) insn).var;
+				varPositions[size] = index;
+				break;
+
+			case AbstractInsnNode.LINE:
+				lines[lineCount++] = ((LineNumberNode) insn).line;
+				break;
+			}
+
+			opcodeHash = 31 * opcodeHash + (insn.getType() << 16 | insn.getOpcode() & 0xFFFF);
+			insns[size++] = insn;
+		}
+
+		this.lines = Arrays.copyOf(lines, lineCount);
+		this.opcodeHash = opcodeHash;
+
+		this.insns = size == rawSize ? insns : Arrays.copyOf(insns, size);
+		this.jumps = size == rawSize ? jumps : Arrays.copyOf(jumps, size);
+		this.vars = size == rawSize ? vars : Arrays.copyOf(vars, size);
+		this.varPositions = size == rawSize ? varPositions : Arrays.copyOf(varPositions, size);
+	}
+
+	private boolean isStale(MethodNode node) {
+		return this.node != node || list != node.instructions || rawSize != list.size();
+	}
+
+	public int size() {
+		return insns.length;
+	}
+
+	public AbstractInsnNode get(int index) {
+		return insns[index];
+	}
+
+	public int getType(int index) {
+		return insns[index].getType();
+	}
+
+	public int getOpcode(int index) {
+		return insns[index].getOpcode();
+	}
+
+	public int getJumpDirection(int index) {
+		return jumps[index];
+	}
+
+	public MethodVarInstance getVar(int index) {
+		if (vars[index] < 0) return null;
+
+		//Whoever is asking must still hold the method for it to have been looked up
+		MethodInstance method = this.method.get();
+		assert method != null;
+		return method.getArgOrVar(vars[index], varPositions[index]);
+	}
+
+	public int getLineCount() {
+		return lines.length;
+	}
+
+	public boolean linesMatch(MethodInstructions other) {
+		return Arrays.equals(lines, other.lines);
+	}
+
+	public int getLineHash() {
+		return Arrays.hashCode(lines);
+	}
+
+	public int getOpcodeHash() {
+		return opcodeHash;
+	}
+
+	public boolean isStripped() {
+		return insns.length != rawSize;
+	}
+}
@@ -0,0 +1,92 @@
+package com.chocohead.merger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import matcher.type.ClassEnv;
+import matcher.type.ClassInstance;
+import matcher.type.FieldInstance;
+import matcher.type.MethodInstance;
+
+final class StructuralHash {
+	//Keeps the UIDs to at most 10 digits whilst leaving few enough collisions to probe past
+	static final int MAX_UID = 0x3FFFFFFF;
+	private static final long FNV_OFFSET = 0xCBF29CE484222325L, FNV_PRIME = 0x100000001B3L;
+
+	private StructuralHash() {
+	}
+
+	public static int ofClass(ClassInstance cls) {
+		//Only what the class itself declares, so changing one member doesn't move every other UID in the class
+		StringBuilder features = new StringBuilder(128).append(cls.isNameObfuscated() ? "*" : cls.getName()).append('|').append(cls.getAccess()).append('|');
+
+		ClassInstance superClass = cls.getSuperClass();
+		features.append(superClass == null ? "" : superClass.isNameObfuscated() ? "*" : superClass.getName()).append('|');
+
+		List<String> parts = new ArrayList<>();
+		for (ClassInstance itf : cls.getInterfaces()) {
+			parts.add(itf.isNameObfuscated() ? "*" : itf.getName());
+		}
+		appendSorted(features, parts);
+
+		return fold(hash(features));
+	}
+
+	public static int ofMethod(MethodInstance method) {
+		StringBuilder features = new StringBuilder(64).append(method.getAccess()).append('|').append(maskDesc(method.getEnv(), method.getDesc()));
+		if (method.getAsmNode() != null) features.append('|').append(MethodInstructions.of(method).getOpcodeHash());
+
+		return fold(hash(features));
+	}
+
+	public static int ofField(FieldInstance field) {
+		StringBuilder features = new StringBuilder(64).append(field.getAccess()).append('|').append(maskDesc(field.getEnv(), field.getDesc()));
+		if (field.getAsmNode() != null && field.getAsmNode().value != null) features.append('|').append(field.getAsmNode().value);
+
+		return fold(hash(features));
+	}
+
+	private static StringBuilder appendSorted(StringBuilder to, List<String> parts) {
+		Collections.sort(parts);
+
+		for (String part : parts) {
+			to.append(part).append(',');
+		}
+
+		parts.clear();
+		return to;
+	}
+
+	private static String maskDesc(ClassEnv env, String desc) {
+		StringBuilder out = new StringBuilder(desc.length());
+		int last = 0;
+
+		//Obfuscated names change between versions, so they can't be part of the hash
+		for (int start; (start = desc.indexOf('L', last)) >= 0;) {
+			int end = desc.indexOf(';', start);
+			String name = desc.substring(start + 1, end);
+			ClassInstance type = env.getClsByName(name);
+
+			out.append(desc, last, start + 1).append(type != null && type.isNameObfuscated() ? "*" : name);
+			last = end;
+		}
+
+		return out.append(desc, last, desc.length()).toString();
+	}
+
+	private static long hash(CharSequence features) {
+		long hash = FNV_OFFSET;
+
+		for (int i = 0, end = features.length(); i < end; i++) {
+			hash = (hash ^ features.charAt(i)) * FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private static int fold(long hash) {
+		int out = (int) ((hash ^ hash >>> 32) & MAX_UID);
+		return out == 0 ? 1 : out;
+	}
+}
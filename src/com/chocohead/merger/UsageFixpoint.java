@@ -0,0 +1,36 @@
+package com.chocohead.merger;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+
+import matcher.Matcher;
+import matcher.Util;
+import matcher.type.ClassInstance;
+
+public class UsageFixpoint {
+	private final Matcher matcher;
+	private final MatchStatistics stats;
+	private final Set<Object> contested = Util.newIdentityHashSet();
+	private Collection<ClassInstance> queue;
+
+	public UsageFixpoint(Matcher matcher, MatchStatistics stats) {
+		this.matcher = matcher;
+		this.stats = stats;
+
+		queue = matcher.getEnv().getClassesA();
+	}
+
+	public boolean isComplete() {
+		return queue.isEmpty();
+	}
+
+	public int queued() {
+		return queue.size();
+	}
+
+	public void runPass(DoubleConsumer progress) {
+		//Only classes which could see something new from the last pass's matches need checking again
+		queue = MergeStep.matchByUsage(matcher, matcher.getEnv(), stats, queue, contested, progress);
+	}
+}
@@ -1,12 +1,51 @@
 package com.chocohead.merger.mappings;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 import matcher.NameType;
 import matcher.bcremap.AsmRemapper;
 import matcher.type.ClassEnv;
 import matcher.type.ClassInstance;
 
+//Names are remembered once looked up, so an instance shouldn't be kept around across changes to mappings or UIDs
 public class MappedUidRemapper extends AsmRemapper {
+	private static final class MemberKey {
+		private final String owner, name, desc;
+		private final byte kind;
+		private final int hash;
+
+		public MemberKey(String owner, String name, String desc, byte kind) {
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+			this.kind = kind;
+			hash = ((31 * owner.hashCode() + name.hashCode()) * 31 + desc.hashCode()) * 31 + kind;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof MemberKey)) return false;
+
+			MemberKey that = (MemberKey) obj;
+			return hash == that.hash && kind == that.kind && owner.equals(that.owner) && name.equals(that.name) && desc.equals(that.desc);
+		}
+	}
+	private static final byte FIELD = 0, METHOD = 1, INTERFACE_METHOD = 2, ANY_METHOD = 3;
+
 	protected final AsmRemapper other;
+	private final Map<String, String> types = new ConcurrentHashMap<>(), uidTypes = new ConcurrentHashMap<>();
+	private final Map<MemberKey, String> members = new ConcurrentHashMap<>();
+	private final Map<String, String> descs = new ConcurrentHashMap<>(), methodDescs = new ConcurrentHashMap<>();
 
 	public MappedUidRemapper(ClassEnv env) {
 		super(env, NameType.MAPPED_PLAIN);
@@ -14,8 +53,24 @@ public class MappedUidRemapper extends AsmRemapper {
 		other = new AsmRemapper(env, NameType.UID_PLAIN);
 	}
 
+	private static <K> String memoise(Map<K, String> cache, K key, Supplier<String> mapper) {
+		String out = cache.get(key);
+
+		if (out == null) {
+			//Not using computeIfAbsent as mapping can come back round to the same cache
+			String existing = cache.putIfAbsent(key, out = mapper.get());
+			if (existing != null) out = existing;
+		}
+
+		return out;
+	}
+
 	@Override
 	public String map(String typeName) {
+		return memoise(types, typeName, () -> map0(typeName));
+	}
+
+	private String map0(String typeName) {
 		String out = super.map(typeName);
 
 		if (!typeName.equals(out)) {
@@ -41,37 +96,77 @@ public class MappedUidRemapper extends AsmRemapper {
 
 			return other.map(newOuter) + '$' + out;*/
 
-			StringBuilder newOut = new StringBuilder();
+			List<String> inners = new ArrayList<>();
 			do {
 				String inner = ClassInstance.getInnerName(out);
-				if (!inner.matches("[0-9]+")) {
-					inner = other.map(inner);
-				}
+				inners.add(isNumeric(inner) ? inner : mapUid(inner));
 
 				out = out.substring(0, out.lastIndexOf('$'));
-				newOut.insert(0, '$').insert(0, inner);
 			} while (ClassInstance.hasOuterName(out));
 
-			return newOut.insert(0, '$').insert(0, other.map(out)).substring(0, newOut.length() - 1);
+			StringBuilder newOut = new StringBuilder(typeName.length() + 16).append(mapUid(out));
+			for (int i = inners.size() - 1; i >= 0; i--) {
+				newOut.append('$').append(inners.get(i));
+			}
+
+			return newOut.toString();
 		}
 
-		return other.map(typeName);
+		return mapUid(typeName);
+	}
+
+	@Override
+	public String mapDesc(String descriptor) {
+		return memoise(descs, descriptor, () -> super.mapDesc(descriptor));
+	}
+
+	@Override
+	public String mapMethodDesc(String methodDescriptor) {
+		//The same few descriptors come up over and over, so it's much cheaper to remember them than parse them each time
+		return memoise(methodDescs, methodDescriptor, () -> super.mapMethodDesc(methodDescriptor));
+	}
+
+	private String mapUid(String typeName) {
+		return memoise(uidTypes, typeName, () -> other.map(typeName));
+	}
+
+	private static boolean isNumeric(String name) {
+		if (name.isEmpty()) return false;
+
+		for (int i = 0, end = name.length(); i < end; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') return false;
+		}
+
+		return true;
 	}
 
 	@Override
 	public String mapFieldName(String owner, String name, String desc) {
+		return memoise(members, new MemberKey(owner, name, desc, FIELD), () -> mapFieldName0(owner, name, desc));
+	}
+
+	private String mapFieldName0(String owner, String name, String desc) {
 		String out = super.mapFieldName(owner, name, desc);
 		return !name.equals(out) ? out : other.mapFieldName(owner, name, desc);
 	}
 
 	@Override
 	public String mapMethodName(String owner, String name, String desc) {
+		return memoise(members, new MemberKey(owner, name, desc, ANY_METHOD), () -> mapMethodName0(owner, name, desc));
+	}
+
+	private String mapMethodName0(String owner, String name, String desc) {
 		String out = super.mapMethodName(owner, name, desc);
 		return !name.equals(out) ? out : other.mapMethodName(owner, name, desc);
 	}
 
 	@Override
 	public String mapMethodName(String owner, String name, String desc, boolean itf) {
+		return memoise(members, new MemberKey(owner, name, desc, itf ? INTERFACE_METHOD : METHOD), () -> mapMethodName0(owner, name, desc, itf));
+	}
+
+	private String mapMethodName0(String owner, String name, String desc, boolean itf) {
 		String out = super.mapMethodName(owner, name, desc, itf);
 		return !name.equals(out) ? out : other.mapMethodName(owner, name, desc, itf);
 	}
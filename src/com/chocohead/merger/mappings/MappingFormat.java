@@ -0,0 +1,12 @@
+package com.chocohead.merger.mappings;
+
+public enum MappingFormat {
+	Tiny("Tiny", "*.tiny"), CompressedTiny("Tiny (gzipped)", "*.tiny.gz"), TinyV2("Tiny v2", "*.tiny");
+
+	public final String name, extension;
+
+	private MappingFormat(String name, String extension) {
+		this.name = name;
+		this.extension = extension;
+	}
+}
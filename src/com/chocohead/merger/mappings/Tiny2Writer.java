@@ -1,9 +1,12 @@
 package com.chocohead.merger.mappings;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import matcher.type.FieldInstance;
 import matcher.type.MethodInstance;
@@ -53,7 +56,9 @@ public class Tiny2Writer extends TinyWriter {
 		public final Map<String, MemberMappingState> fieldMap = new LinkedHashMap<>();
 	}
 
-	private final Map<String, ClassMappingState> classMap = new LinkedHashMap<>();
+	//Only the class currently being written is held, callers are expected to give all of a class' mappings together
+	private ClassMappingState current;
+	private final Set<String> written = new HashSet<>();
 
 	public Tiny2Writer(Writer writer) throws IOException {
 		super(writer);
@@ -71,7 +76,19 @@ public class Tiny2Writer extends TinyWriter {
 	}
 
 	public ClassMappingState getClass(String name) {
-		return classMap.computeIfAbsent(name, ClassMappingState::new);
+		if (current == null || !current.name.equals(name)) {
+			try {
+				writeCurrent();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error writing tiny class", e);
+			}
+
+			//A class coming back after it's been written would need a second block, which isn't valid v2
+			if (!written.add(name)) throw new IllegalStateException("Mappings for " + name + " were not given together");
+			current = new ClassMappingState(name);
+		}
+
+		return current;
 	}
 
 	@Override
@@ -89,44 +106,52 @@ public class Tiny2Writer extends TinyWriter {
 		getClass(glueClass).mapField(glueName, desc, serverName, clientName);
 	}
 
-	@Override
-	public void close() throws IOException {
-		for (ClassMappingState clsState : classMap.values()) {
-			writer.write("c\t");
-			writer.write(clsState.name);
+	private void writeCurrent() throws IOException {
+		if (current == null) return;
+		ClassMappingState clsState = current;
+		current = null;
+
+		writer.write("c\t");
+		writer.write(clsState.name);
+		writer.write('\t');
+		if (clsState.server != null) writer.write(clsState.server);
+		writer.write('\t');
+		if (clsState.client != null) writer.write(clsState.client);
+		writer.write('\n');
+
+		for (MemberMappingState mthState : clsState.methodMap.values()) {
+			writer.write("\tm\t");
+			writer.write(mthState.desc);
+			writer.write('\t');
+			writer.write(mthState.name);
 			writer.write('\t');
-			if (clsState.server != null) writer.write(clsState.server);
+			if (mthState.server != null) writer.write(mthState.server);
 			writer.write('\t');
-			if (clsState.client != null) writer.write(clsState.client);
+			if (mthState.client != null) writer.write(mthState.client);
 			writer.write('\n');
+			assert mthState.server != null || mthState.client != null;
+		}
 
-			for (MemberMappingState mthState : clsState.methodMap.values()) {
-				writer.write("\tm\t");
-				writer.write(mthState.desc);
-				writer.write('\t');
-				writer.write(mthState.name);
-				writer.write('\t');
-				if (mthState.server != null) writer.write(mthState.server);
-				writer.write('\t');
-				if (mthState.client != null) writer.write(mthState.client);
-				writer.write('\n');
-				assert mthState.server != null || mthState.client != null;
-			}
-
-			for (MemberMappingState fldState : clsState.fieldMap.values()) {
-				writer.write("\tf\t");
-				writer.write(fldState.desc);
-				writer.write('\t');
-				writer.write(fldState.name);
-				writer.write('\t');
-				if (fldState.server != null) writer.write(fldState.server);
-				writer.write('\t');
-				if (fldState.client != null) writer.write(fldState.client);
-				writer.write('\n');
-				assert fldState.server != null || fldState.client != null;
-			}
+		for (MemberMappingState fldState : clsState.fieldMap.values()) {
+			writer.write("\tf\t");
+			writer.write(fldState.desc);
+			writer.write('\t');
+			writer.write(fldState.name);
+			writer.write('\t');
+			if (fldState.server != null) writer.write(fldState.server);
+			writer.write('\t');
+			if (fldState.client != null) writer.write(fldState.client);
+			writer.write('\n');
+			assert fldState.server != null || fldState.client != null;
 		}
+	}
 
-		super.close();
+	@Override
+	public void close() throws IOException {
+		try {
+			writeCurrent();
+		} finally {
+			super.close();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.chocohead.merger.mappings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+public class TinyReader {
+	public interface Visitor {
+		default void acceptClass(String glue, String server, String client) {
+		}
+
+		default void acceptMethod(String glueClass, String glueName, String desc, String serverName, String clientName) {
+		}
+
+		default void acceptField(String glueClass, String glueName, String desc, String serverName, String clientName) {
+		}
+	}
+
+	public static void read(Path file, Visitor visitor) throws IOException {
+		try (BufferedReader reader = open(file)) {
+			String header = reader.readLine();
+			if (header == null) throw new IOException("Empty mappings file: " + file);
+
+			String[] columns = new String[6];
+			if (header.startsWith("v1\t")) {
+				checkNamespaces(header, split(header, 1, columns), columns);
+				readV1(reader, visitor, columns);
+			} else if (header.startsWith("tiny\t2\t")) {
+				checkNamespaces(header, split(header, 3, columns), columns);
+				readV2(reader, visitor, columns);
+			} else {
+				throw new IOException("Unrecognised mappings header: " + header);
+			}
+		}
+	}
+
+	private static BufferedReader open(Path file) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(file));
+
+		try {
+			//Sniff for the gzip magic rather than trusting the file extension
+			in.mark(2);
+			int magic = in.read() | in.read() << 8;
+			in.reset();
+
+			if (magic == GZIPInputStream.GZIP_MAGIC) in = new GZIPInputStream(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	private static void checkNamespaces(String header, int count, String[] columns) throws IOException {
+		if (count != 3 || !"glue".equals(columns[0]) || !"server".equals(columns[1]) || !"client".equals(columns[2])) {
+			throw new IOException("Expected glue, server and client namespaces but found " + header);
+		}
+	}
+
+	private static void readV1(BufferedReader reader, Visitor visitor, String[] columns) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty() || line.charAt(0) == '#') continue;
+
+			if (line.startsWith("CLASS\t")) {
+				expect(line, split(line, 1, columns), 3);
+				visitor.acceptClass(columns[0], columns[1], columns[2]);
+			} else if (line.startsWith("METHOD\t")) {
+				expect(line, split(line, 1, columns), 5);
+				visitor.acceptMethod(columns[0], columns[2], columns[1], columns[3], columns[4]);
+			} else if (line.startsWith("FIELD\t")) {
+				expect(line, split(line, 1, columns), 5);
+				visitor.acceptField(columns[0], columns[2], columns[1], columns[3], columns[4]);
+			} else {
+				throw new IOException("Unexpected line in tiny file: " + line);
+			}
+		}
+	}
+
+	private static void readV2(BufferedReader reader, Visitor visitor, String[] columns) throws IOException {
+		String currentClass = null;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty()) continue;
+
+			if (line.startsWith("c\t")) {
+				expect(line, split(line, 1, columns), 3);
+				visitor.acceptClass(currentClass = columns[0], columns[1], columns[2]);
+			} else if (currentClass == null) {
+				//Still in the header's properties
+				if ("\tescaped-names".equals(line) || line.startsWith("\tescaped-names\t")) throw new IOException("Escaped tiny names are not supported");
+			} else if (line.startsWith("\tm\t")) {
+				expect(line, split(line, 2, columns), 4);
+				visitor.acceptMethod(currentClass, columns[1], columns[0], columns[2], columns[3]);
+			} else if (line.startsWith("\tf\t")) {
+				expect(line, split(line, 2, columns), 4);
+				visitor.acceptField(currentClass, columns[1], columns[0], columns[2], columns[3]);
+			}
+			//Anything else is a comment or parameter/variable which the glue never has
+		}
+	}
+
+	private static int split(String line, int skip, String[] into) {
+		int start = 0;
+		for (int i = 0; i < skip; i++) {
+			start = line.indexOf('\t', start) + 1;
+		}
+
+		int count = 0;
+		for (int end; count < into.length; start = end + 1) {
+			end = line.indexOf('\t', start);
+			if (end < 0) end = line.length();
+
+			into[count++] = end > start ? line.substring(start, end) : null;
+			if (end == line.length()) break;
+		}
+
+		return count;
+	}
+
+	private static void expect(String line, int count, int expected) throws IOException {
+		if (count != expected) throw new IOException("Expected " + expected + " columns but found " + count + ": " + line);
+	}
+}
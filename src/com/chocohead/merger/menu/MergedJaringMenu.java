@@ -1,24 +1,18 @@
 package com.chocohead.merger.menu;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.lang.reflect.Field;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.function.DoubleConsumer;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -30,35 +24,30 @@ import javafx.scene.control.Dialog;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
-import net.fabricmc.stitch.merge.JarMerger;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InnerClassNode;
 
 import matcher.Matcher;
-import matcher.NameType;
 import matcher.Util;
-import matcher.bcremap.AsmRemapper;
 import matcher.config.Config;
 import matcher.gui.Gui;
-import matcher.type.ClassEnvironment;
+import matcher.gui.Gui.SelectedFile;
 import matcher.type.ClassInstance;
 import matcher.type.FieldInstance;
-import matcher.type.InputFile;
-import matcher.type.MemberInstance;
+import matcher.type.MatchType;
 import matcher.type.MethodInstance;
 import matcher.type.MethodVarInstance;
 
+import com.chocohead.merger.MatchStatistics;
+import com.chocohead.merger.MergeExporter;
 import com.chocohead.merger.MergeStep;
 import com.chocohead.merger.QueuingIterator;
 import com.chocohead.merger.TripleClassEnvironment;
-import com.chocohead.merger.mappings.MappedUidRemapper;
-import com.chocohead.merger.mappings.TinyWriter;
 import com.chocohead.merger.pane.ArgoConfirmPane;
 import com.chocohead.merger.pane.ArgoPane;
 import com.chocohead.merger.pane.ExportJarPane;
 import com.chocohead.merger.pane.ExportJarPane.Side;
-import com.chocohead.merger.pane.ExportJarPane.Type;
 
 public class MergedJaringMenu extends Menu {
 	public MergedJaringMenu(Gui gui) {
@@ -68,8 +57,16 @@ public class MergedJaringMenu extends Menu {
 		item.setOnAction(event -> dumpMergedJar(gui));
 		getItems().add(item);
 
+		item = new MenuItem("Import glue");
+		item.setOnAction(event -> importGlue(gui));
+		getItems().add(item);
+
 		item = new MenuItem("Clear UIDs");
-		item.setOnAction(event -> gui.runProgressTask("Clearing UIDs", progress -> clearGlue(gui, progress), () -> {}, Throwable::printStackTrace));
+		item.setOnAction(event -> gui.runProgressTask("Clearing UIDs", progress -> MergeExporter.clearGlue(gui.getEnv(), progress), () -> {}, Throwable::printStackTrace));
+		getItems().add(item);
+
+		item = new MenuItem("Clear assigned UIDs");
+		item.setOnAction(event -> gui.runProgressTask("Clearing assigned UIDs", progress -> MergeExporter.clearAssignedGlue(gui.getEnv(), progress), () -> {}, Throwable::printStackTrace));
 		getItems().add(item);
 
 		getItems().add(new SeparatorMenuItem());
@@ -117,7 +114,7 @@ public class MergedJaringMenu extends Menu {
 				}
 			}
 
-			gui.runProgressTask("Exporting merged jar...", progress -> dumpMergedJar(gui, export, progress),
+			gui.runProgressTask("Exporting merged jar...", progress -> MergeExporter.dumpMergedJar(gui.getEnv(), export.getMergeJar(), export.getMappingsFile(), export.getMappingsType(), export.isServerA(), export.excludedA(), export.excludedB(), progress),
 					() -> gui.showAlert(AlertType.INFORMATION, "Exporting merged jar...", "Export complete", "Merged jar has been exported to " + export.getMergeJar()),
 					t -> {
 						t.printStackTrace();
@@ -126,331 +123,25 @@ public class MergedJaringMenu extends Menu {
 		});
 	}
 
-	private static void dumpMergedJar(Gui gui, ExportJarPane export, DoubleConsumer progress) {
-		Predicate<ClassInstance> assignSkipper;
-		if (!export.excludedA().isEmpty() || !export.excludedB().isEmpty()) {
-			Predicate<ClassInstance> aSkipper = exluderFor(export.excludedA());
-			Predicate<ClassInstance> bSkipper = exluderFor(export.excludedB());
-			assignSkipper = cls -> (gui.getEnv().getClassesA().contains(cls) == export.isServerA() ? aSkipper : bSkipper).test(cls);
-		} else {
-			assignSkipper = cls -> false;
-		}
-		assignGlue(gui, assignSkipper, progress);
-		exportGlue(gui, export.getMappingsFile(), export.getMappingsType(), export.isServerA(), exluderFor(export.excludedA()), exluderFor(export.excludedB()), progress);
-
-		ClassEnvironment env = gui.getEnv();
-		Path aIn = pullInput(env.getInputFilesA());
-		Path bIn = pullInput(env.getInputFilesB());
-
-		try (JarMerger merger = new JarMerger(export.isClientA() ? env::getClsByNameA : env::getClsByNameB, export.isServerA() ? env::getClsByNameA : env::getClsByNameB, export.isClientA() ? aIn : bIn, export.isServerA() ? aIn : bIn, export.getMergeJar())) {
-			System.out.println("Merging...");
-
-			merger.merge();
-
-			System.out.println("Merge completed!");
-		} catch (IOException e) {
-			throw new UncheckedIOException("Error merging jars", e);
-		}
-	}
-
-	private static Predicate<ClassInstance> exluderFor(String pattern) {
-		if (pattern.isEmpty()) return cls -> false;
-
-		Pattern regex = Pattern.compile(pattern);
-		return cls -> regex.matcher(cls.getName()).matches();
-	}
-
-	private static Path pullInput(Collection<InputFile> inputs) {
-		if (inputs.size() != 1) throw new UnsupportedOperationException("Unable to merge multiple input files");
-		InputFile input = inputs.iterator().next();
-
-		return input.hasPath() ? input.path : Paths.get(input.fileName);
-	}
-
-	private static void assignGlue(Gui gui, Predicate<ClassInstance> skipper, DoubleConsumer progress) {
-		int nextClassID = 1;
-		int nextMethodID = 1;
-		int nextFieldID = 1;
-
-		List<ClassInstance> classes = new ArrayList<>(gui.getEnv().getClasses());
-		classes.sort(Comparator.comparing(ClassInstance::getName));
-
-		List<MethodInstance> methods = new ArrayList<>();
-		List<FieldInstance> fields = new ArrayList<>();
-
-		double progressAmount = 1;
-		for (ClassInstance cls : classes) {
-			assert cls.isInput();
-			if (skipper.test(cls)) continue;
-
-			if (cls.isNameObfuscated()) {
-				if (cls.hasMatch() && cls.getUid() >= 0) {
-					assert cls.getUid() == cls.getMatch().getUid();
-				} else {
-					assert cls.getUid() < 0;
-					int id;
-					cls.setUid(id = nextClassID++);
-					assert cls.getUid() == id: "Failed to claim UID for " + cls;
-				}
-			}
-
-			for (MethodInstance method : cls.getMethods()) {
-				if (method.isNameObfuscated() && method.getUid() < 0 && method.getParents().stream().map(MethodInstance::getCls).noneMatch(skipper)) {
-					methods.add(method);
-				}
-			}
-
-			if (!methods.isEmpty()) {
-				methods.sort(MemberInstance.nameComparator);
-
-				for (MethodInstance method : methods) {
-					int id;
-					int[] UIDs = method.getAllHierarchyMembers().stream().mapToInt(MethodInstance::getUid).distinct().sorted().toArray();
-					if (UIDs.length > 2 || UIDs.length == 2 && UIDs[0] != -1) {
-						throw new IllegalStateException("Inconsistent method hierachy naming: " + Arrays.toString(UIDs));
-					} else if (UIDs.length == 2) {
-						id = UIDs[1];
-					} else {
-						assert UIDs.length == 1;
-						id = UIDs[0] == -1 ? nextMethodID++ : UIDs[0];
-					}
-
-					for (MethodInstance m : method.getAllHierarchyMembers()) {
-						assert m.getUid() <= 0 || m.getUid() == id: "Changed " + m + " UID from " + m.getUid() + " to " + id + ", hierachy is " + method.getAllHierarchyMembers().stream().map(mtd -> mtd + " => " + mtd.getUid()).collect(Collectors.joining(", ", "[", "]"));
-						m.setUid(id);
-						assert m.getUid() == id: "Failed to claim UID for " + m;
-					}
-				}
-
-				methods.clear();
-			}
-
-			for (FieldInstance field : cls.getFields()) {
-				if (field.isNameObfuscated() && field.getUid() < 0) {
-					fields.add(field);
-				}
-			}
-
-			if (!fields.isEmpty()) {
-				fields.sort(MemberInstance.nameComparator);
-
-				for (FieldInstance field : fields) {
-					int id;
-					field.setUid(id = nextFieldID++);
-					assert field.getUid() == id: "Failed to claim UID for " + field;
-					assert field.getAllHierarchyMembers().size() == 1;
-				}
-
-				fields.clear();
-			}
-
-			progress.accept(progressAmount++ / classes.size());
-		}
-
-		System.out.printf("Generated glue IDs: %d classes, %d methods, %d fields%n", nextClassID, nextMethodID, nextFieldID);
-	}
-
-	private static void exportGlue(Gui gui, Path to, Type type, boolean serverFirst, Predicate<ClassInstance> aSkipper, Predicate<ClassInstance> bSkipper, DoubleConsumer progress) {
-		TinyWriter writer;
-		try {
-			Files.deleteIfExists(to);
-
-			switch (type) {
-			case Tiny:
-				writer = TinyWriter.normal(to);
-				break;
-
-			case CompressedTiny:
-				writer = TinyWriter.compressed(to);
-				break;
-
-			case TinyV2:
-				writer = TinyWriter.v2(to);
-				break;
-
-			default:
-				throw new IllegalStateException("Unexpected export type: " + type);
-			}
-		} catch (IOException e) {
-			throw new UncheckedIOException("Error opening glue export file at " + to, e);
-		}
-
-		List<ClassInstance> union = new ArrayList<>();
-		List<ClassInstance> serverOnly = new ArrayList<>();
-		List<ClassInstance> clientOnly = new ArrayList<>();
-
-		for (ClassInstance cls : serverFirst ? gui.getEnv().getClassesA() : gui.getEnv().getClassesB()) {
-			if ((serverFirst ? aSkipper : bSkipper).test(cls)) continue;
-			(cls.hasMatch() ? union : serverOnly).add(cls);
-		}
-		for (ClassInstance cls : serverFirst ? gui.getEnv().getClassesB() : gui.getEnv().getClassesA()) {
-			if ((serverFirst ? bSkipper : aSkipper).test(cls)) continue;
-			if (!cls.hasMatch()) {
-				clientOnly.add(cls);
-			} else {
-				assert union.contains(cls.getMatch());
-			}
-		}
-
-		union.sort(Comparator.comparing(ClassInstance::getName));
-		serverOnly.sort(Comparator.comparing(ClassInstance::getName));
-		clientOnly.sort(Comparator.comparing(ClassInstance::getName));
-
-		AsmRemapper serverNamer = new MappedUidRemapper(serverFirst ? gui.getEnv().getEnvA() : gui.getEnv().getEnvB());
-		AsmRemapper clientNamer = new MappedUidRemapper(serverFirst ? gui.getEnv().getEnvB() : gui.getEnv().getEnvA());
-
-		double total = union.size() + serverOnly.size() + clientOnly.size();
-		int current = 1;
-
-		for (ClassInstance cls : union) {
-			assert cls.isInput();
-
-			String className;
-			if (cls.isNameObfuscated()) {
-				assert cls.getUid() >= 0: "Missed UID for " + cls;
-				assert Objects.equals(cls.getName(NameType.UID_PLAIN), cls.getMatch().getName(NameType.UID_PLAIN));
-				assert cls.hasMappedName() == cls.getMatch().hasMappedName();
-				writer.acceptClass(className = serverNamer.map(cls.getName()), cls.getName(NameType.PLAIN), cls.getMatch().getName(NameType.PLAIN));
-			} else {
-				className = cls.getName();
-			}
-
-			for (MethodInstance method : cls.getMethods()) {
-				if (method.isNameObfuscated()) {
-					assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? aSkipper : bSkipper): "Missed UID for " + method;
-					writer.acceptMethod(className, serverNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), serverNamer.mapMethodDesc(method.getDesc()),
-							method.getName(NameType.PLAIN), method.hasMatch() ? method.getMatch().getName(NameType.PLAIN) : null);
-				}
-			}
-			for (MethodInstance method : cls.getMatch().getMethods()) {
-				if (!method.hasMatch() && method.isNameObfuscated()) {
-					assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? bSkipper : aSkipper): "Missed UID for " + method + " (class matched to " + cls + ')';
-					writer.acceptMethod(className, clientNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), clientNamer.mapMethodDesc(method.getDesc()), null, method.getName(NameType.PLAIN));
-				}
-			}
-
-			for (FieldInstance field : cls.getFields()) {
-				if (field.isNameObfuscated()) {
-					assert field.getUid() >= 0: "Missed UID for " + field;
-					writer.acceptField(className, serverNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), serverNamer.mapDesc(field.getDesc()),
-							field.getName(NameType.PLAIN), field.hasMatch() ? field.getMatch().getName(NameType.PLAIN) : null);
-				}
-			}
-			for (FieldInstance field : cls.getMatch().getFields()) {
-				if (!field.hasMatch() && field.isNameObfuscated()) {
-					assert field.getUid() >= 0: "Missed UID for " + field + " (class matched to " + cls + ')';
-					writer.acceptField(className, clientNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), clientNamer.mapDesc(field.getDesc()), null, field.getName(NameType.PLAIN));
-				}
-			}
-
-			progress.accept(current++ / total);
-		}
-
-		for (ClassInstance cls : serverOnly) {
-			assert cls.isInput();
-
-			String className;
-			if (cls.isNameObfuscated()) {
-				assert cls.getUid() >= 0;
-				writer.acceptClass(className = serverNamer.map(cls.getName()), cls.getName(NameType.PLAIN), null);
-			} else {
-				className = cls.getName();
-			}
-
-			for (MethodInstance method : cls.getMethods()) {
-				if (method.isNameObfuscated()) {
-					assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? aSkipper : bSkipper);
-					writer.acceptMethod(className, serverNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), serverNamer.mapMethodDesc(method.getDesc()), method.getName(NameType.PLAIN), null);
-				}
-			}
-
-			for (FieldInstance field : cls.getFields()) {
-				if (field.isNameObfuscated()) {
-					assert field.getUid() >= 0;
-					writer.acceptField(className, serverNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), serverNamer.mapDesc(field.getDesc()), field.getName(NameType.PLAIN), null);
-				}
-			}
-
-			progress.accept(current++ / total);
-		}
-
-		for (ClassInstance cls : clientOnly) {
-			assert cls.isInput();
-
-			String className;
-			if (cls.isNameObfuscated()) {
-				assert cls.getUid() >= 0;
-				writer.acceptClass(className = clientNamer.map(cls.getName()), null, cls.getName(NameType.PLAIN));
-			} else {
-				className = cls.getName();
-			}
-
-			for (MethodInstance method : cls.getMethods()) {
-				if (method.isNameObfuscated()) {
-					assert method.getUid() >= 0 || method.getParents().stream().map(MethodInstance::getCls).anyMatch(serverFirst ? bSkipper : aSkipper);
-					writer.acceptMethod(className, clientNamer.mapMethodName(method.getOwner().getName(), method.getName(), method.getDesc()), clientNamer.mapMethodDesc(method.getDesc()), null, method.getName(NameType.PLAIN));
-				}
-			}
-
-			for (FieldInstance field : cls.getFields()) {
-				if (field.isNameObfuscated()) {
-					assert field.getUid() >= 0;
-					writer.acceptField(className, clientNamer.mapFieldName(field.getOwner().getName(), field.getName(), field.getDesc()), clientNamer.mapDesc(field.getDesc()), null, field.getName(NameType.PLAIN));
-				}
-			}
-
-			progress.accept(current++ / total);
-		}
-
-		Util.closeSilently(writer);
-	}
-
-	private static void clearGlue(Gui gui, DoubleConsumer progress) {
-		List<MethodInstance> methods = new ArrayList<>();
-		List<FieldInstance> fields = new ArrayList<>();
-
-		double toDo = gui.getEnv().getClasses().size();
-		int progressAmount = 1;
-
-		for (ClassInstance cls : gui.getEnv().getClasses()) {
-			assert cls.isInput();
-
-			if (cls.isNameObfuscated() && cls.getUid() >= 0) {
-				cls.setUid(-1);
-			}
-
-			for (MethodInstance method : cls.getMethods()) {
-				if (method.isNameObfuscated() && method.getUid() >= 0) {
-					methods.add(method);
-				}
-			}
-
-			if (!methods.isEmpty()) {
-				for (MethodInstance method : methods) {
-					for (MethodInstance m : method.getAllHierarchyMembers()) {
-						m.setUid(-1);
-					}
-				}
-
-				methods.clear();
-			}
-
-			for (FieldInstance field : cls.getFields()) {
-				if (field.isNameObfuscated() && field.getUid() >= 0) {
-					fields.add(field);
-				}
-			}
-
-			if (!fields.isEmpty()) {
-				for (FieldInstance field : cls.getFields()) {
-					field.setUid(-1);
-				}
-
-				fields.clear();
-			}
-
-			progress.accept(progressAmount++ / toDo);
-		}
+	private static void importGlue(Gui gui) {
+		SelectedFile selection = Gui.requestFile("Open glue mappings", gui.getMenu().getScene().getWindow(), ExportJarPane.mappingExtensionFilter(), true);
+		if (selection == null) return;
+
+		ButtonType serverA = new ButtonType("A is server");
+		ButtonType clientA = new ButtonType("A is client");
+		Alert alert = new Alert(AlertType.CONFIRMATION, "Which side was the server when the glue was exported?", serverA, clientA, ButtonType.CANCEL);
+		alert.setTitle("Importing glue...");
+		alert.setHeaderText("Select the server side");
+
+		ButtonType side = alert.showAndWait().orElse(ButtonType.CANCEL);
+		if (side == ButtonType.CANCEL) return;
+
+		gui.runProgressTask("Importing glue...", progress -> MergeExporter.importGlue(gui.getMatcher(), selection.path, side == serverA, progress),
+				() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
+				t -> {
+					t.printStackTrace();
+					gui.showAlert(AlertType.ERROR, "Importing glue...", "Import failed", "Reading glue failed due to " + t.getLocalizedMessage());
+				});
 	}
 
 	private static void mergeArgo(Gui gui) {
@@ -478,24 +169,26 @@ public class MergedJaringMenu extends Menu {
 				QueuingIterator<MergeStep> task = new QueuingIterator<>(MergeStep.values(), MergeStep.UsageMatch);
 				Set<ClassInstance> classesToDo = env.getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated()).collect(Collectors.toCollection(Util::newIdentityHashSet));
 
+				MatchStatistics stats = new MatchStatistics(classesToDo);
+
 				long matched = 0;
 				do {
-					Set<ClassInstance> previousUnmatchedClasses = classesToDo.stream().filter(cls -> !cls.hasMatch()).collect(Collectors.toCollection(Util::newIdentityHashSet));
-					long previousUnmatchedMethods = previousUnmatchedClasses.stream().flatMap(cls -> Arrays.stream(cls.getMethods())).filter(method -> !method.hasMatch()).count();
-					long previousUnmatchedFields = previousUnmatchedClasses.stream().flatMap(cls -> Arrays.stream(cls.getFields())).filter(method -> !method.hasMatch()).count();
+					int previousUnmatchedClasses = stats.getUnmatchedClasses();
+					int previousUnmatchedMethods = stats.getUnmatchedMethods();
+					int previousUnmatchedFields = stats.getUnmatchedFields();
 
 					assert task.hasNext();
-					task.next().run(thirdWay, progress::accept);
+					task.next().run(thirdWay, stats, progress::accept);
 
-					Set<ClassInstance> unmatchedClasses = classesToDo.stream().filter(cls -> !cls.hasMatch()).collect(Collectors.toCollection(Util::newIdentityHashSet));
-					long unmatchedMethods = unmatchedClasses.stream().flatMap(cls -> Arrays.stream(cls.getMethods())).filter(method -> !method.hasMatch()).count();
-					long unmatchedFields = unmatchedClasses.stream().flatMap(cls -> Arrays.stream(cls.getFields())).filter(method -> !method.hasMatch()).count();
+					int unmatchedClasses = stats.getUnmatchedClasses();
+					int unmatchedMethods = stats.getUnmatchedMethods();
+					int unmatchedFields = stats.getUnmatchedFields();
 
-					matched = Math.abs(previousUnmatchedClasses.size() - unmatchedClasses.size()) + Math.abs(previousUnmatchedMethods - unmatchedMethods) + Math.abs(previousUnmatchedFields - unmatchedFields);
+					matched = Math.abs(previousUnmatchedClasses - unmatchedClasses) + Math.abs(previousUnmatchedMethods - unmatchedMethods) + Math.abs(previousUnmatchedFields - unmatchedFields);
 					System.out.printf("Matching left %d/%d classes (%+d), %d/%d methods (%+d) and %d/%d fields (%+d) unmatched%n",
-							unmatchedClasses.size(), classesToDo.size(), unmatchedClasses.size() - previousUnmatchedClasses.size(),
-							unmatchedMethods, classesToDo.stream().flatMap(cls -> Arrays.stream(cls.getMethods())).count(), unmatchedMethods - previousUnmatchedMethods,
-							unmatchedFields, classesToDo.stream().flatMap(cls -> Arrays.stream(cls.getFields())).count(), unmatchedFields - previousUnmatchedFields);
+							unmatchedClasses, stats.getClasses(), unmatchedClasses - previousUnmatchedClasses,
+							unmatchedMethods, stats.getMethods(), unmatchedMethods - previousUnmatchedMethods,
+							unmatchedFields, stats.getFields(), unmatchedFields - previousUnmatchedFields);
 				} while (matched > 0 || task.keepGoing());
 
 				Map<Boolean, List<ClassInstance>> pool = classesToDo.stream().collect(Collectors.groupingBy(ClassInstance::hasMatch));
@@ -1,13 +1,10 @@
 package com.chocohead.merger.menu;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.DoubleConsumer;
-import java.util.stream.Collectors;
 
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
@@ -15,21 +12,19 @@ import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.stage.FileChooser.ExtensionFilter;
 
-import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.LineNumberNode;
-
-import matcher.Matcher;
 import matcher.gui.Gui;
-import matcher.type.ClassInstance;
+import matcher.gui.Gui.SelectedFile;
 import matcher.type.MatchType;
-import matcher.type.MethodInstance;
 
+import com.chocohead.merger.MatchStatistics;
+import com.chocohead.merger.MergeSnapshot;
 import com.chocohead.merger.MergeStep;
-import com.chocohead.merger.MethodCloseness;
 
 public class MergingMenu extends Menu {
+	private static final List<ExtensionFilter> SNAPSHOT_FILTER = Collections.singletonList(new ExtensionFilter("Match snapshot", "*.snapshot"));
+
 	public static class MergeSettings {
 		private final Set<MergeStep> steps = EnumSet.allOf(MergeStep.class);
 		private final Gui gui;
@@ -53,93 +48,20 @@ public class MergingMenu extends Menu {
 		void run(DoubleConsumer progress) {
 			assert hasAnySteps();
 			int progressDivison = steps.size();
+			MatchStatistics stats = new MatchStatistics(gui.getEnv().getClassesA());
 
 			for (MergeStep step : steps) {
-				long previousUnmatched = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
+				int previousUnmatched = stats.getUnmatchedClasses();
 
-				step.run(gui, value -> progress.accept(value / progressDivison));
+				step.run(gui, stats, value -> progress.accept(value / progressDivison));
 
-				long unmatched = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
+				int unmatched = stats.getUnmatchedClasses();
 				System.out.println("Matched " + Math.abs(previousUnmatched - unmatched) + " classes (" + unmatched + " left unmatched, " + gui.getEnv().getClassesA().size() + " total)");
 			}
 		}
 
 		void keepRunning(DoubleConsumer progress) {
-			for (MergeStep step : MergeStep.values()) {
-				long previousUnmatched = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
-
-				step.run(gui, progress::accept);
-
-				long unmatched = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
-				System.out.println("Matched " + Math.abs(previousUnmatched - unmatched) + " classes (" + unmatched + " left unmatched, " + gui.getEnv().getClassesA().size() + " total)");
-			}
-
-			long matched = 0;
-			do {
-				long previousUnmatchedClasses = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
-				long previousUnmatchedMethods = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch()).flatMap(cls -> Arrays.stream(cls.getMethods())).filter(method -> !method.hasMatch()).count();
-				long previousUnmatchedFields = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch()).flatMap(cls -> Arrays.stream(cls.getFields())).filter(method -> !method.hasMatch()).count();
-
-				MergeStep.UsageMatch.run(gui, progress::accept);
-
-				long unmatchedClasses = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && !cls.hasMatch()).count();
-				long unmatchedMethods = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch()).flatMap(cls -> Arrays.stream(cls.getMethods())).filter(method -> !method.hasMatch()).count();
-				long unmatchedFields = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch()).flatMap(cls -> Arrays.stream(cls.getFields())).filter(method -> !method.hasMatch()).count();
-
-				matched = Math.abs(previousUnmatchedClasses - unmatchedClasses) + Math.abs(previousUnmatchedMethods - unmatchedMethods) + Math.abs(previousUnmatchedFields - unmatchedFields);
-				System.out.println("Matched " + (unmatchedClasses - previousUnmatchedClasses) + " classes (" + unmatchedClasses + " left unmatched, " + gui.getEnv().getClassesA().size() + " total)");
-			} while (matched > 0);
-
-			assert assertMatches();
-		}
-
-		private boolean assertMatches() {
-			List<ClassInstance> classes = gui.getEnv().getClassesA().stream().filter(cls -> cls.getUri() != null && cls.isNameObfuscated() && cls.hasMatch() && cls.getMethods().length > 0).collect(Collectors.toList());
-			Set<MethodInstance> mismatches = Collections.newSetFromMap(new ConcurrentHashMap<>());
-
-			Matcher.runInParallel(classes, cls -> {
-				for (MethodInstance method : cls.getMethods()) {
-					if (!method.hasMatch()) continue;
-					assert method.isReal();
-
-					MethodInstance match = method.getMatch();
-					assert match.isReal();
-
-					InsnList methodIns = MethodCloseness.cloneWithoutFrames(method.getAsmNode().instructions);
-					InsnList matchedIns = MethodCloseness.cloneWithoutFrames(match.getAsmNode().instructions);
-
-					if (methodIns.size() != matchedIns.size()) {
-						mismatches.add(method);
-						continue;
-					}
-
-					for (int insn = 0; insn < methodIns.size(); insn++) {
-						AbstractInsnNode insnA = methodIns.get(insn);
-						AbstractInsnNode insnB = matchedIns.get(insn);
-						assert insnA.getType() == insnB.getType(): "Mismatch between " + method + " and " + match + ' ' + insn + " in: " + insnA + " vs " + insnB;
-						assert insnA.getOpcode() == insnB.getOpcode(): "Mismatch between " + method + " and " + match + ' ' + insn + " in: " + insnA + " vs " + insnB;
-
-						if (insnA.getType() == AbstractInsnNode.LINE) {
-							if (((LineNumberNode) insnA).line != ((LineNumberNode) insnB).line)  {
-								mismatches.add(method);
-								break;
-							}
-						}
-					}
-				}
-			}, progress -> {});
-
-			if (!mismatches.isEmpty()) {
-				System.out.println("Found mismatched methods after full pass:");
-
-				for (MethodInstance method : mismatches) {
-					System.out.println('\t' + method.toString() + " => " + method.getMatch());
-				}
-
-				return false;
-			} else {
-				return true;
-			}
+			MergeStep.runUntilComplete(gui.getMatcher(), progress);
 		}
 	}
 
@@ -185,6 +107,31 @@ public class MergingMenu extends Menu {
 
 		getItems().add(new SeparatorMenuItem());
 
+		item = new MenuItem("Save match snapshot");
+		item.setOnAction(event -> {
+			SelectedFile selection = Gui.requestFile("Save match snapshot", gui.getMenu().getScene().getWindow(), SNAPSHOT_FILTER, false);
+			if (selection == null) return;
+
+			gui.runProgressTask("Saving snapshot...", progress -> MergeSnapshot.save(gui.getEnv(), selection.path, progress), () -> {}, Throwable::printStackTrace);
+		});
+		getItems().add(item);
+		item = new MenuItem("Load match snapshot");
+		item.setOnAction(event -> {
+			SelectedFile selection = Gui.requestFile("Load match snapshot", gui.getMenu().getScene().getWindow(), SNAPSHOT_FILTER, true);
+			if (selection == null) return;
+
+			gui.runProgressTask("Loading snapshot...",
+					progress -> MergeSnapshot.load(gui.getMatcher(), selection.path, progress),
+					() -> gui.onMatchChange(EnumSet.allOf(MatchType.class)),
+					t -> {
+						t.printStackTrace();
+						gui.showAlert(AlertType.ERROR, "Loading snapshot...", "Load failed", "Applying the snapshot failed due to " + t.getLocalizedMessage());
+					});
+		});
+		getItems().add(item);
+
+		getItems().add(new SeparatorMenuItem());
+
 		for (MergeStep step : MergeStep.values()) {
 			CheckMenuItem checkItem = new CheckMenuItem(step.name);
 			checkItem.setSelected(settings.doStep(step));
@@ -25,21 +25,9 @@ import matcher.gui.Gui;
 import matcher.gui.Gui.SelectedFile;
 import matcher.gui.GuiConstants;
 
-public class ExportJarPane extends GridPane {
-	public enum Type {
-		Tiny("Tiny", "*.tiny"), CompressedTiny("Tiny (gzipped)", "*.tiny.gz"), TinyV2("Tiny v2", "*.tiny");
-
-		public final String name, extension;
-
-		private Type(String name, String extension) {
-			this.name = name;
-			this.extension = extension;
-		}
+import com.chocohead.merger.mappings.MappingFormat;
 
-		public ExtensionFilter toFilter() {
-			return new ExtensionFilter(name, extension);
-		}
-	}
+public class ExportJarPane extends GridPane {
 	public enum Side {
 		A, B, BOTH;
 	}
@@ -217,8 +205,8 @@ public class ExportJarPane extends GridPane {
 		return Collections.singletonList(new ExtensionFilter("Java archive", "*.jar"));
 	}
 
-	private static List<ExtensionFilter> mappingExtensionFilter() {
-		return Arrays.stream(Type.values()).map(Type::toFilter).collect(Collectors.toList());
+	public static List<ExtensionFilter> mappingExtensionFilter() {
+		return Arrays.stream(MappingFormat.values()).map(format -> new ExtensionFilter(format.name, format.extension)).collect(Collectors.toList());
 	}
 
 	void onConfigurationChange() {
@@ -234,8 +222,8 @@ public class ExportJarPane extends GridPane {
 		return mergedJar;
 	}
 
-	public Type getMappingsType() {
-		for (Type type : Type.values()) {
+	public MappingFormat getMappingsType() {
+		for (MappingFormat type : MappingFormat.values()) {
 			if (type.name.equals(mappingType)) {
 				return type;
 			}
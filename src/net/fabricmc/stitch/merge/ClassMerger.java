@@ -18,16 +18,20 @@ package net.fabricmc.stitch.merge;
 
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import net.fabricmc.stitch.merge.JarMerger.ClassEntry;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
@@ -41,37 +45,59 @@ public class ClassMerger {
 	private static final String ITF_LIST_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterfaces;";
 	private static final String SIDED_DESCRIPTOR = "Lnet/fabricmc/api/Environment;";
 
+	private static final class MemberKey {
+		private final String name, desc;
+		private final int hash;
+
+		public MemberKey(String name, String desc) {
+			this.name = name;
+			this.desc = desc;
+			hash = 31 * name.hashCode() + desc.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof MemberKey)) return false;
+
+			MemberKey that = (MemberKey) obj;
+			return hash == that.hash && name.equals(that.name) && desc.equals(that.desc);
+		}
+	}
+
 	private abstract class Merger<T> {
-		private final Map<String, T> entriesClient, entriesServer;
-		private final List<String> entryNames;
+		private final List<T> entriesClient, entriesServer;
+		private final int[] fromClient, fromServer;
 
 		public Merger(List<T> entriesClient, List<T> entriesServer) {
-			this.entriesClient = new LinkedHashMap<>();
-			this.entriesServer = new LinkedHashMap<>();
-
-			List<String> listClient = toMap(entriesClient, this.entriesClient);
-			List<String> listServer = toMap(entriesServer, this.entriesServer);
+			this.entriesClient = entriesClient;
+			this.entriesServer = entriesServer;
 
-			this.entryNames = /*StitchUtil.*/mergePreserveOrder(listClient, listServer);
+			int[][] alignment = /*StitchUtil.*/alignPreserveOrder(toKeys(entriesClient), toKeys(entriesServer));
+			fromClient = alignment[0];
+			fromServer = alignment[1];
 		}
 
-		public abstract String getName(T entry);
+		public abstract Object getKey(T entry);
 		public abstract void applySide(T entry, String side);
 
-		private final List<String> toMap(List<T> entries, Map<String, T> map) {
-			List<String> list = new ArrayList<>(entries.size());
+		private final List<Object> toKeys(List<T> entries) {
+			List<Object> list = new ArrayList<>(entries.size());
 			for (T entry : entries) {
-				String name = getName(entry);
-				map.put(name, entry);
-				list.add(name);
+				list.add(getKey(entry));
 			}
 			return list;
 		}
 
 		public void merge(List<T> list) {
-			for (String s : entryNames) {
-				T entryClient = entriesClient.get(s);
-				T entryServer = entriesServer.get(s);
+			for (int i = 0; i < fromClient.length; i++) {
+				T entryClient = fromClient[i] >= 0 ? entriesClient.get(fromClient[i]) : null;
+				T entryServer = fromServer[i] >= 0 ? entriesServer.get(fromServer[i]) : null;
 
 				if (entryClient != null && entryServer != null) {
 					list.add(entryClient);
@@ -129,57 +155,43 @@ public class ClassMerger {
 		//readerC.accept(nodeC, 0);
 		classClient.accept(nodeC);
 
-		ClassNode nodeS = new ClassNode(Opcodes.ASM7);
+		Map<MemberKey, Integer> clientMethods = new HashMap<>();
+		for (MethodNode method : nodeC.methods) {
+			clientMethods.merge(new MemberKey(method.name, method.desc), 1, Integer::sum);
+		}
+
+		ClassNode nodeS = new ClassNode(Opcodes.ASM7) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				//Repeats only pair with as many copies as the client has, any beyond that need their code as they'll be server only
+				MemberKey key = new MemberKey(name, descriptor);
+				Integer clientCopies = clientMethods.remove(key);
+				if (clientCopies == null) return super.visitMethod(access, name, descriptor, signature, exceptions);
+				if (clientCopies > 1) clientMethods.put(key, clientCopies - 1);
+
+				//Common methods are always taken from the client, so only the server's order is needed rather than a second copy of the code
+				methods.add(new MethodNode(api, access, name, descriptor, signature, exceptions));
+				return null;
+			}
+		};
 		//readerS.accept(nodeS, 0);
 		classServer.accept(nodeS);
 
-		ClassNode nodeOut = new ClassNode(Opcodes.ASM7);
-		nodeOut.version = nodeC.version;
-		nodeOut.access = nodeC.access;
-		nodeOut.name = nodeC.name;
-		nodeOut.signature = nodeC.signature;
-		nodeOut.superName = nodeC.superName;
-		nodeOut.sourceFile = nodeC.sourceFile;
-		nodeOut.sourceDebug = nodeC.sourceDebug;
-		nodeOut.outerClass = nodeC.outerClass;
-		nodeOut.outerMethod = nodeC.outerMethod;
-		nodeOut.outerMethodDesc = nodeC.outerMethodDesc;
-		nodeOut.module = nodeC.module;
-		nodeOut.nestHostClass = nodeC.nestHostClass;
-		nodeOut.nestMembers = nodeC.nestMembers;
-		nodeOut.attrs = nodeC.attrs;
-
-		if (nodeC.invisibleAnnotations != null) {
-			nodeOut.invisibleAnnotations = new ArrayList<>();
-			nodeOut.invisibleAnnotations.addAll(nodeC.invisibleAnnotations);
-		}
-		if (nodeC.invisibleTypeAnnotations != null) {
-			nodeOut.invisibleTypeAnnotations = new ArrayList<>();
-			nodeOut.invisibleTypeAnnotations.addAll(nodeC.invisibleTypeAnnotations);
-		}
-		if (nodeC.visibleAnnotations != null) {
-			nodeOut.visibleAnnotations = new ArrayList<>();
-			nodeOut.visibleAnnotations.addAll(nodeC.visibleAnnotations);
-		}
-		if (nodeC.visibleTypeAnnotations != null) {
-			nodeOut.visibleTypeAnnotations = new ArrayList<>();
-			nodeOut.visibleTypeAnnotations.addAll(nodeC.visibleTypeAnnotations);
-		}
+		//The client's tree is only built for this merge, so the server's differences can go straight into it rather than copying both into a third
+		ClassNode nodeOut = nodeC;
 
-		if (nodeC.interfaces.size() + nodeS.interfaces.size() >= 4) {
-			System.out.println("Sorting interfaces in " + nodeOut.name);
-			nodeC.interfaces.sort(null);
-			nodeS.interfaces.sort(null);
-		}
 		List<String> itfs = /*StitchUtil.*/mergePreserveOrder(nodeC.interfaces, nodeS.interfaces);
-		nodeOut.interfaces = new ArrayList<>();
 
 		List<String> clientItfs = new ArrayList<>();
 		List<String> serverItfs = new ArrayList<>();
 
+		Set<String> itfsC = new HashSet<>(nodeC.interfaces);
+		Set<String> itfsS = new HashSet<>(nodeS.interfaces);
+		nodeOut.interfaces = new ArrayList<>();
+
 		for (String s : itfs) {
-			boolean nc = nodeC.interfaces.contains(s);
-			boolean ns = nodeS.interfaces.contains(s);
+			boolean nc = itfsC.contains(s);
+			boolean ns = itfsS.contains(s);
 			nodeOut.interfaces.add(s);
 			if (nc && !ns) {
 				clientItfs.add(s);
@@ -202,21 +214,24 @@ public class ClassMerger {
 			envInterfaces.visitEnd();
 		}
 
+		List<InnerClassNode> innerClasses = new ArrayList<>();
 		new Merger<InnerClassNode>(nodeC.innerClasses, nodeS.innerClasses) {
 			@Override
-			public String getName(InnerClassNode entry) {
+			public Object getKey(InnerClassNode entry) {
 				return entry.name;
 			}
 
 			@Override
 			public void applySide(InnerClassNode entry, String side) {
 			}
-		}.merge(nodeOut.innerClasses);
+		}.merge(innerClasses);
+		nodeOut.innerClasses = innerClasses;
 
+		List<FieldNode> fields = new ArrayList<>();
 		new Merger<FieldNode>(nodeC.fields, nodeS.fields) {
 			@Override
-			public String getName(FieldNode entry) {
-				return entry.name + ";;" + entry.desc;
+			public Object getKey(FieldNode entry) {
+				return new MemberKey(entry.name, entry.desc);
 			}
 
 			@Override
@@ -224,12 +239,14 @@ public class ClassMerger {
 				AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
 				visitSideAnnotation(av, side);
 			}
-		}.merge(nodeOut.fields);
+		}.merge(fields);
+		nodeOut.fields = fields;
 
+		List<MethodNode> methods = new ArrayList<>();
 		new Merger<MethodNode>(nodeC.methods, nodeS.methods) {
 			@Override
-			public String getName(MethodNode entry) {
-				return entry.name + entry.desc;
+			public Object getKey(MethodNode entry) {
+				return new MemberKey(entry.name, entry.desc);
 			}
 
 			@Override
@@ -237,45 +254,112 @@ public class ClassMerger {
 				AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
 				visitSideAnnotation(av, side);
 			}
-		}.merge(nodeOut.methods);
+		}.merge(methods);
+		nodeOut.methods = methods;
 
 		/*nodeOut.accept(writer);
 		return writer.toByteArray();*/
 		return nodeOut::accept;
 	}
 
-	//Fished out of StitchUtil
-	static List<String> mergePreserveOrder(List<String> first, List<String> second) {
-		List<String> out = new ArrayList<>();
-		int i = 0;
-		int j = 0;
+	//Fished out of StitchUtil, then reworked into aligning over the longest common subsequence so reorderings can't deadlock
+	static <T> List<T> mergePreserveOrder(List<T> first, List<T> second) {
+		int[][] alignment = alignPreserveOrder(first, second);
+		int[] fromFirst = alignment[0], fromSecond = alignment[1];
 
-		while (i < first.size() || j < second.size()) {
-			int startI = i, startJ = j;
+		List<T> out = new ArrayList<>(fromFirst.length);
+		for (int k = 0; k < fromFirst.length; k++) {
+			out.add(fromFirst[k] >= 0 ? first.get(fromFirst[k]) : second.get(fromSecond[k]));
+		}
 
-			while (i < first.size() && j < second.size()
-					&& first.get(i).equals(second.get(j))) {
-				out.add(first.get(i));
-				i++;
-				j++;
-			}
+		return out;
+	}
+
+	//Gives the index in each list of every entry in merged order, or -1 if the entry is missing from that list
+	static <T> int[][] alignPreserveOrder(List<T> first, List<T> second) {
+		//Repeated entries pair up in turn, the nth in the first with the nth in the second, so any extras on either side are left one sided
+		Map<T, Integer> secondIndex = new HashMap<>(second.size() * 2);
+		int[] nextSame = new int[second.size()];
+		for (int j = second.size() - 1; j >= 0; j--) {
+			Integer later = secondIndex.put(second.get(j), j);
+			nextSame[j] = later != null ? later : -1;
+		}
+
+		int[] partner = new int[first.size()];
+		boolean[] secondShared = new boolean[second.size()];
+		for (int i = 0; i < first.size(); i++) {
+			T entry = first.get(i);
+			Integer j = secondIndex.get(entry);
+
+			if (j != null) {
+				partner[i] = j;
+				secondShared[j] = true;
 
-			while (i < first.size() && !second.contains(first.get(i))) {
-				out.add(first.get(i));
-				i++;
+				if (nextSame[j] >= 0) {
+					secondIndex.put(entry, nextSame[j]);
+				} else {
+					secondIndex.remove(entry);
+				}
+			} else {
+				partner[i] = -1;
 			}
+		}
 
-			while (j < second.size() && !first.contains(second.get(j))) {
-				out.add(second.get(j));
-				j++;
+		//With every entry in the second partnered at most once, the LCS is the longest increasing run of partner indices taken in the first's order
+		int length = 0;
+		int[] tails = new int[first.size()]; //Index in first of the smallest tail for each length of run
+		int[] previous = new int[first.size()];
+		for (int i = 0; i < first.size(); i++) {
+			if (partner[i] < 0) continue;
+
+			//Always taking the lowest tail that isn't smaller gives a stable tie-break, so a given pair of lists always aligns the same way
+			int low = 0, high = length;
+			while (low < high) {
+				int mid = low + high >>> 1;
+
+				if (partner[tails[mid]] < partner[i]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
 			}
 
-			if (startI == i && startJ == j) {
-				throw new IllegalStateException("Deadlocked over " + first + " and " + second);
+			previous[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length) length++;
+		}
+
+		boolean[] anchorFirst = new boolean[first.size()];
+		boolean[] anchorSecond = new boolean[second.size()];
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			anchorFirst[i] = true;
+			anchorSecond[partner[i]] = true;
+		}
+
+		int size = 0;
+		int[] fromFirst = new int[first.size() + second.size()];
+		int[] fromSecond = new int[first.size() + second.size()];
+
+		for (int i = 0, j = 0; i < first.size() || j < second.size();) {
+			if (i < first.size() && !anchorFirst[i]) {
+				//Entries only in the first, or common but out of order, go where the first has them
+				fromFirst[size] = i;
+				fromSecond[size++] = partner[i++];
+			} else if (j < second.size() && !anchorSecond[j]) {
+				//Common entries have already been placed by the first
+				if (!secondShared[j]) {
+					fromFirst[size] = -1;
+					fromSecond[size++] = j;
+				}
+				j++;
+			} else {
+				assert i < first.size() && j < second.size() && partner[i] == j;
+				fromFirst[size] = i++;
+				fromSecond[size++] = j++;
 			}
 		}
 
-		return out;
+		return new int[][] {Arrays.copyOf(fromFirst, size), Arrays.copyOf(fromSecond, size)};
 	}
 	//Up to here
 }
\ No newline at end of file
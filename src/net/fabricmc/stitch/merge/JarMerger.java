@@ -27,15 +27,16 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -43,7 +44,9 @@ import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
-import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+import net.fabricmc.stitch.merge.ZipWriter.CompressedEntry;
 
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -54,6 +57,7 @@ import matcher.Matcher;
 import matcher.Util;
 import matcher.bcremap.AsmClassRemapper;
 import matcher.bcremap.AsmRemapper;
+import matcher.type.ClassEnv;
 import matcher.type.ClassInstance;
 
 import com.chocohead.merger.mappings.MappedUidRemapper;
@@ -68,17 +72,29 @@ public class JarMerger implements AutoCloseable {
 			this.metadata = metadata;
 		}
 
-		public abstract void writeTo(Path path) throws IOException;
+		public abstract byte[] getContents() throws IOException;
 	}
 
 	public static class CloningEntry extends Entry {
+		private final ZipReader source;
+
 		public CloningEntry(Path path, BasicFileAttributes metadata) {
+			this(path, metadata, null);
+		}
+
+		CloningEntry(Path path, BasicFileAttributes metadata, ZipReader source) {
 			super(path, metadata);
+
+			this.source = source;
+		}
+
+		CompressedEntry copyRaw(String name, boolean allowDeflated) throws IOException {
+			return source != null ? source.copy(name, metadata.lastModifiedTime(), allowDeflated) : null;
 		}
 
 		@Override
-		public void writeTo(Path path) throws IOException {
-			Files.copy(this.path, path);
+		public byte[] getContents() throws IOException {
+			return Files.readAllBytes(path);
 		}
 	}
 
@@ -92,24 +108,37 @@ public class JarMerger implements AutoCloseable {
 		}
 
 		@Override
-		public void writeTo(Path path) throws IOException {
-			Files.write(path, contents, StandardOpenOption.CREATE_NEW);
+		public byte[] getContents() {
+			return contents;
 		}
 	}
 
 	public static class ClassEntry extends Entry {
 		private final Consumer<ClassVisitor> contentsFinaliser;
-		private final ClassWriter writer = new ClassWriter(0);
-		private ClassVisitor visitor = writer;
+		private UnaryOperator<ClassVisitor> visitorTransformer = UnaryOperator.identity();
 
-		public static ClassEntry fill(Map<String, Entry> entries, Path path, BasicFileAttributes metadata, Function<String, ClassInstance> classFactory) {
+		private static ClassInstance findClass(Path path, Function<String, ClassInstance> classFactory) {
 			assert path.toString().endsWith(".class");
 
 			String name = path.toString().substring(1, path.toString().length() - 6);
 			ClassInstance cls = classFactory.apply(name);
 
 			assert cls != null && cls.getUri() != null: "Unable to find valid class for " + name + " (produced " + cls + ')';
-			AsmRemapper remapper = new MappedUidRemapper(cls.getEnv());
+			return cls;
+		}
+
+		public static String mapPath(Path path, Function<String, ClassInstance> classFactory, Function<ClassEnv, ? extends AsmRemapper> remappers) {
+			ClassInstance cls = findClass(path, classFactory);
+			return remappers.apply(cls.getEnv()).map(cls.getName()) + ".class";
+		}
+
+		public static ClassEntry fill(Map<String, Entry> entries, Path path, BasicFileAttributes metadata, Function<String, ClassInstance> classFactory) {
+			return fill(entries, path, metadata, classFactory, MappedUidRemapper::new);
+		}
+
+		public static ClassEntry fill(Map<String, Entry> entries, Path path, BasicFileAttributes metadata, Function<String, ClassInstance> classFactory, Function<ClassEnv, ? extends AsmRemapper> remappers) {
+			ClassInstance cls = findClass(path, classFactory);
+			AsmRemapper remapper = remappers.apply(cls.getEnv());
 
 			String replacementPath = remapper.map(cls.getName()) + ".class";;
 			assert replacementPath.codePoints().filter(ch -> ch == '.').count() == 1;
@@ -118,9 +147,14 @@ public class JarMerger implements AutoCloseable {
 				ClassNode node = cls.getMergedAsmNode();
 				if (node == null) throw new IllegalArgumentException("Class without an ASM node: " + cls);
 
+				//Visiting a node resets its labels, so Matcher's own node is only held long enough to copy
+				//The copy belongs to this task alone, so remapping and writing it can go on in parallel
+				ClassNode copy = new ClassNode(Opcodes.ASM7);
 				synchronized (Util.asmNodeSync) {
-					AsmClassRemapper.process(node, remapper, visitor);
+					node.accept(copy);
 				}
+
+				AsmClassRemapper.process(copy, remapper, visitor);
 			});
 			if (entries != null) entries.put(replacementPath, out); //out.path doesn't actually exist, but we can just about get away with it
 			return out;
@@ -133,7 +167,8 @@ public class JarMerger implements AutoCloseable {
 		}
 
 		public void accept(UnaryOperator<ClassVisitor> visitorTransformer) {
-			visitor = visitorTransformer.apply(visitor);
+			UnaryOperator<ClassVisitor> previous = this.visitorTransformer;
+			this.visitorTransformer = visitor -> visitorTransformer.apply(previous.apply(visitor));
 		}
 
 		public void accept(ClassVisitor visitor) {
@@ -141,20 +176,28 @@ public class JarMerger implements AutoCloseable {
 		}
 
 		@Override
-		public void writeTo(Path path) throws IOException {
-			contentsFinaliser.accept(visitor);
-			Files.write(path, writer.toByteArray(), StandardOpenOption.CREATE_NEW);
+		public byte[] getContents() {
+			//Only make the writer once it's needed, rather than holding one per class for the whole merge
+			ClassWriter writer = new ClassWriter(0);
+			contentsFinaliser.accept(visitorTransformer.apply(writer));
+			return writer.toByteArray();
 		}
 	}
 
 	private static final ClassMerger CLASS_MERGER = new ClassMerger();
+	private static final int MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 4;
 	private final Function<String, ClassInstance> clientClasses, serverClasses;
-	private final /*StitchUtil.*/FileSystem/*Delegate*/ inputClientFs, inputServerFs, outputFs;
+	private final /*StitchUtil.*/FileSystem/*Delegate*/ inputClientFs, inputServerFs;
+	private final ZipReader rawClient, rawServer;
+	private final ZipWriter output;
 	private final Path inputClient, inputServer;
-	private final Map<String, Entry> entriesClient, entriesServer;
+	private final Map<String, Path> entriesClient, entriesServer;
 	private final Set<String> entriesAll;
+	private final Map<ClassEnv, MappedUidRemapper> remappers = new ConcurrentHashMap<>();
 	private boolean removeSnowmen = false;
 	private boolean offsetSyntheticsParams = false;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private boolean merged;
 
 	//Based on StitchUtil's File accepting version
 	private static FileSystem getJarFileSystem(Path path, boolean create) throws IOException {
@@ -187,7 +230,9 @@ public class JarMerger implements AutoCloseable {
 
 		this.inputClient = (inputClientFs = /*StitchUtil.*/getJarFileSystem(inputClient, false))/*.get()*/.getPath("/");
 		this.inputServer = (inputServerFs = /*StitchUtil.*/getJarFileSystem(inputServer, false))/*.get()*/.getPath("/");
-		outputFs = /*StitchUtil.*/getJarFileSystem(output, true);
+		rawClient = new ZipReader(inputClient);
+		rawServer = new ZipReader(inputServer);
+		this.output = new ZipWriter(output);
 
 		entriesClient = new HashMap<>();
 		entriesServer = new HashMap<>();
@@ -202,14 +247,28 @@ public class JarMerger implements AutoCloseable {
 		offsetSyntheticsParams = true;
 	}
 
+	public void setCompressionLevel(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+
+		compressionLevel = level; //No compression will store entries rather than deflate them
+	}
+
 	@Override
 	public void close() throws IOException {
 		inputClientFs.close();
 		inputServerFs.close();
-		outputFs.close();
+		rawClient.close();
+		rawServer.close();
+		if (merged) {
+			output.close();
+		} else {
+			output.abort(); //Don't leave a partial jar behind that looks complete
+		}
 	}
 
-	private void readToMap(Map<String, Entry> map, Path input, boolean isServer) {
+	private void readToMap(Map<String, Path> map, Path input, boolean isServer) {
 		try {
 			Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
 				@Override
@@ -220,7 +279,7 @@ public class JarMerger implements AutoCloseable {
 
 					if (!path.getFileName().toString().endsWith(".class")) {
 						if (path.toString().equals("/META-INF/MANIFEST.MF")) {
-							map.put("META-INF/MANIFEST.MF", new FlatteningEntry(path, attr, "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(StandardCharsets.UTF_8)));
+							map.put("META-INF/MANIFEST.MF", path);
 						} else {
 							if (path.toString().startsWith("/META-INF/")) {
 								if (path.toString().endsWith(".SF") || path.toString().endsWith(".RSA")) {
@@ -228,7 +287,7 @@ public class JarMerger implements AutoCloseable {
 								}
 							}
 
-							map.put(path.toString().substring(1), new CloningEntry(path, attr));
+							map.put(path.toString().substring(1), path);
 						}
 
 						return FileVisitResult.CONTINUE;
@@ -236,7 +295,8 @@ public class JarMerger implements AutoCloseable {
 
 					/*byte[] output = Files.readAllBytes(path);
 					map.put(path.toString().substring(1), new Entry(path, attr, output));*/
-					ClassEntry.fill(map, path, attr, isServer ? serverClasses : clientClasses);
+					//Only the path is kept until the entry is written, so the merge never holds more entries than it has in flight
+					map.put(ClassEntry.mapPath(path, isServer ? serverClasses : clientClasses, JarMerger.this::remapperFor), path);
 					return FileVisitResult.CONTINUE;
 				}
 			});
@@ -245,23 +305,6 @@ public class JarMerger implements AutoCloseable {
 		}
 	}
 
-	private void add(Entry entry) throws IOException {
-		Path outPath = outputFs/*.get()*/.getPath(entry.path.toString());
-		if (outPath.getParent() != null) {
-			Files.createDirectories(outPath.getParent());
-		}
-
-		/*if (entry.data != null) {
-			Files.write(outPath, entry.data, StandardOpenOption.CREATE_NEW);
-		} else {
-			Files.copy(entry.path, outPath);
-		}*/
-		entry.writeTo(outPath);
-
-		//TODO: Add me back once a suitable solution for ClassEntry is found
-		//Files.getFileAttributeView(entry.path, BasicFileAttributeView.class).setTimes(entry.metadata.creationTime(), entry.metadata.lastAccessTime(), entry.metadata.lastModifiedTime());
-	}
-
 	public void merge() throws IOException {
 		//ExecutorService service = Executors.newFixedThreadPool(2);
 		Future<?> clientTask = Matcher.threadPool/*service*/.submit(() -> readToMap(entriesClient, inputClient, false));
@@ -278,85 +321,146 @@ public class JarMerger implements AutoCloseable {
 		entriesAll.addAll(entriesClient.keySet());
 		entriesAll.addAll(entriesServer.keySet());
 
-		List<Entry> entries = entriesAll.parallelStream().map((entry) -> {
-			boolean isClass = entry.endsWith(".class");
-			boolean isMinecraft = entriesClient.containsKey(entry) || entry.startsWith("net/minecraft") || !entry.contains("/");
-			Entry result;
-			String side/* = null*/;
-
-			Entry entry1 = entriesClient.get(entry);
-			Entry entry2 = entriesServer.get(entry);
-
-			assert entry1 == null || isClass == entry1 instanceof ClassEntry: "Expected " + (isClass ? "class" : "non-class") + " for " + entry + " but found " + entry1;
-			assert entry2 == null || isClass == entry2 instanceof ClassEntry: "Expected " + (isClass ? "class" : "non-class") + " for " + entry + " but found " + entry1;
-
-			if (entry1 != null && entry2 != null) {
-				/*if (Arrays.equals(entry1.data, entry2.data)) {
-					result = entry1; //Classes always need to be remapped
-				} else */{
-					if (isClass) {
-						try {
-							result = new ClassEntry(entry1.path, entry1.metadata, CLASS_MERGER.merge((ClassEntry) entry1/*.data*/, (ClassEntry) entry2/*.data*/));
-						} catch (IllegalStateException e) {
-							throw new RuntimeException("Exception merging " + entry, e);
-						}
-					} else {
-						System.err.println("Common non-class resource: " + entry);
-						// FIXME: More heuristics?
-						result = entry1;
-					}
+		Deque<Future<CompressedEntry>> pending = new ArrayDeque<>(MAX_IN_FLIGHT);
+		Iterator<String> names = entriesAll.iterator();
+
+		try {
+			while (names.hasNext() || !pending.isEmpty()) {
+				//Keep the pool busy merging ahead of the writer, but never let more than a window's worth of classes sit in memory
+				while (pending.size() < MAX_IN_FLIGHT && names.hasNext()) {
+					String name = names.next();
+					pending.add(Matcher.threadPool.submit(() -> prepare(mergeEntry(name))));
 				}
-				side = null;
-			} else if ((result = entry1) != null) {
-				side = "CLIENT";
-			} else if ((result = entry2) != null) {
-				side = "SERVER";
-			} else {
-				throw new IllegalStateException("Unable to find entry on either side for " + entry);
+
+				CompressedEntry entry = pending.remove().get();
+				if (entry != null) output.write(entry);
 			}
 
-			if (isClass && !isMinecraft && "SERVER".equals(side)) {
-				// Server bundles libraries, client doesn't - skip them
-				return null;
+			merged = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted merging jars", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException("Error merging jars", cause);
+		} finally {
+			for (Future<CompressedEntry> task : pending) {
+				task.cancel(false);
 			}
+		}
+	}
 
-			/*if (result != null)*/ {
-				if (isMinecraft && isClass) {
-					/*byte[] data = result.data;
-					ClassReader reader = new ClassReader(data);
-					ClassWriter writer = new ClassWriter(0);
-					ClassVisitor visitor = writer;*/
-					assert result instanceof ClassEntry;
+	private MappedUidRemapper remapperFor(ClassEnv env) {
+		//Each side shares a remapper for the whole merge so names looked up for one class are already known for the next
+		return remappers.computeIfAbsent(env, MappedUidRemapper::new);
+	}
 
-					if (side != null) {
-						((ClassEntry) result).accept(visitor /*=*/-> new ClassMerger.SidedClassVisitor(Opcodes.ASM7, visitor, side));
-					}
+	private Entry createEntry(Path path, boolean isServer) throws IOException {
+		if (path == null) return null;
+		BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
 
-					if (removeSnowmen) {
-						//visitor = new SnowmanClassVisitor(Opcodes.ASM7, visitor);
-						throw new UnsupportedOperationException(); //Shouldn't be needed given there's no LVT
-					}
+		if (path.getFileName().toString().endsWith(".class")) {
+			return ClassEntry.fill(null, path, attr, isServer ? serverClasses : clientClasses, this::remapperFor);
+		} else if (path.toString().equals("/META-INF/MANIFEST.MF")) {
+			return new FlatteningEntry(path, attr, "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(StandardCharsets.UTF_8));
+		} else {
+			return new CloningEntry(path, attr, isServer ? rawServer : rawClient);
+		}
+	}
 
-					if (offsetSyntheticsParams) {
-						//visitor = new SyntheticParameterClassVisitor(Opcodes.ASM7, visitor);
-						throw new UnsupportedOperationException(); //Shouldn't be needed given there's no annotations
+	private Entry mergeEntry(String entry) throws IOException {
+		boolean isClass = entry.endsWith(".class");
+		boolean isMinecraft = entriesClient.containsKey(entry) || entry.startsWith("net/minecraft") || !entry.contains("/");
+		Entry result;
+		String side/* = null*/;
+
+		Entry entry1 = createEntry(entriesClient.get(entry), false);
+		Entry entry2 = createEntry(entriesServer.get(entry), true);
+
+		assert entry1 == null || isClass == entry1 instanceof ClassEntry: "Expected " + (isClass ? "class" : "non-class") + " for " + entry + " but found " + entry1;
+		assert entry2 == null || isClass == entry2 instanceof ClassEntry: "Expected " + (isClass ? "class" : "non-class") + " for " + entry + " but found " + entry1;
+
+		if (entry1 != null && entry2 != null) {
+			/*if (Arrays.equals(entry1.data, entry2.data)) {
+				result = entry1; //Classes always need to be remapped
+			} else */{
+				if (isClass) {
+					try {
+						result = new ClassEntry(entry1.path, entry1.metadata, CLASS_MERGER.merge((ClassEntry) entry1/*.data*/, (ClassEntry) entry2/*.data*/));
+					} catch (IllegalStateException e) {
+						throw new RuntimeException("Exception merging " + entry, e);
 					}
+				} else {
+					System.err.println("Common non-class resource: " + entry);
+					// FIXME: More heuristics?
+					result = entry1;
+				}
+			}
+			side = null;
+		} else if ((result = entry1) != null) {
+			side = "CLIENT";
+		} else if ((result = entry2) != null) {
+			side = "SERVER";
+		} else {
+			throw new IllegalStateException("Unable to find entry on either side for " + entry);
+		}
+
+		if (isClass && !isMinecraft && "SERVER".equals(side)) {
+			// Server bundles libraries, client doesn't - skip them
+			return null;
+		}
+
+		/*if (result != null)*/ {
+			if (isMinecraft && isClass) {
+				/*byte[] data = result.data;
+				ClassReader reader = new ClassReader(data);
+				ClassWriter writer = new ClassWriter(0);
+				ClassVisitor visitor = writer;*/
+				assert result instanceof ClassEntry;
 
-					/*if (visitor != writer) {
-						reader.accept(visitor, 0);
-						data = writer.toByteArray();
-						result = new Entry(result.path, result.metadata, data);
-					}*/
+				if (side != null) {
+					((ClassEntry) result).accept(visitor /*=*/-> new ClassMerger.SidedClassVisitor(Opcodes.ASM7, visitor, side));
 				}
 
-				return result;
-			}/* else {
-				return null;
-			}*/
-		}).filter(Objects::nonNull).collect(Collectors.toList());
+				if (removeSnowmen) {
+					//visitor = new SnowmanClassVisitor(Opcodes.ASM7, visitor);
+					throw new UnsupportedOperationException(); //Shouldn't be needed given there's no LVT
+				}
+
+				if (offsetSyntheticsParams) {
+					//visitor = new SyntheticParameterClassVisitor(Opcodes.ASM7, visitor);
+					throw new UnsupportedOperationException(); //Shouldn't be needed given there's no annotations
+				}
 
-		for (Entry e : entries) {
-			add(e);
+				/*if (visitor != writer) {
+					reader.accept(visitor, 0);
+					data = writer.toByteArray();
+					result = new Entry(result.path, result.metadata, data);
+				}*/
+			}
+
+			return result;
+		}/* else {
+			return null;
+		}*/
+	}
+
+	private CompressedEntry prepare(Entry entry) throws IOException {
+		if (entry == null) return null;
+
+		//Do the (comparatively expensive) class writing and compressing off the writer thread so the writer only ever has to copy bytes
+		String name = entry.path.toString();
+		if (name.startsWith("/")) name = name.substring(1);
+
+		if (entry instanceof CloningEntry) {
+			//Resources are never changed, so they can be moved across still compressed rather than inflated and deflated again
+			CompressedEntry raw = ((CloningEntry) entry).copyRaw(name, compressionLevel != Deflater.NO_COMPRESSION);
+			if (raw != null) return raw;
 		}
+
+		return CompressedEntry.compress(name, entry.metadata.lastModifiedTime(), entry.getContents(), compressionLevel);
 	}
 }
\ No newline at end of file
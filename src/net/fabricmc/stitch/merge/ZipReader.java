@@ -0,0 +1,123 @@
+package net.fabricmc.stitch.merge;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.fabricmc.stitch.merge.ZipWriter.CompressedEntry;
+
+class ZipReader implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034B50, CENTRAL_HEADER = 0x02014B50, END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+	private static final int ENCRYPTED_FLAG = 0x1;
+
+	private static class Location {
+		public final int method;
+		public final long crc, size, compressedSize, localHeader;
+
+		public Location(int method, long crc, long size, long compressedSize, long localHeader) {
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.compressedSize = compressedSize;
+			this.localHeader = localHeader;
+		}
+	}
+
+	private final FileChannel channel;
+	private final Map<String, Location> entries = new HashMap<>();
+
+	public ZipReader(Path jar) throws IOException {
+		channel = FileChannel.open(jar, StandardOpenOption.READ);
+
+		try {
+			readCentralDirectory();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, 22 + 0xFFFF); //End of central directory record plus the longest possible comment
+		ByteBuffer tail = read(fileSize - tailSize, tailSize);
+
+		int end = -1;
+		for (int i = tailSize - 22; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) throw new IOException("Unable to find central directory");
+
+		int count = Short.toUnsignedInt(tail.getShort(end + 10));
+		long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+		long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) return; //Zip64, everything will have to be copied the slow way
+
+		ByteBuffer directory = read(directoryOffset, (int) directorySize);
+		for (int i = 0, position = 0; i < count; i++) {
+			if (directory.getInt(position) != CENTRAL_HEADER) throw new IOException("Corrupt central directory entry at " + (directoryOffset + position));
+
+			int flags = Short.toUnsignedInt(directory.getShort(position + 8));
+			int method = Short.toUnsignedInt(directory.getShort(position + 10));
+			long crc = Integer.toUnsignedLong(directory.getInt(position + 16));
+			long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+			long size = Integer.toUnsignedLong(directory.getInt(position + 24));
+			int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+			int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+			int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+			long localHeader = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+			byte[] name = new byte[nameLength];
+			directory.position(position + 46);
+			directory.get(name);
+
+			//Anything unusual is left to be inflated and compressed again as normal
+			if ((flags & ENCRYPTED_FLAG) == 0 && (method == ZipWriter.STORED || method == ZipWriter.DEFLATED)
+					&& compressedSize < Integer.MAX_VALUE && size != 0xFFFFFFFFL && localHeader != 0xFFFFFFFFL) {
+				entries.put(new String(name, StandardCharsets.UTF_8), new Location(method, crc, size, compressedSize, localHeader));
+			}
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer out = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (out.hasRemaining()) {
+			if (channel.read(out, position + out.position()) < 0) throw new EOFException();
+		}
+
+		out.flip();
+		return out;
+	}
+
+	public CompressedEntry copy(String name, FileTime lastModified, boolean allowDeflated) throws IOException {
+		Location location = entries.get(name);
+		if (location == null || location.method == ZipWriter.DEFLATED && !allowDeflated) return null;
+
+		ByteBuffer header = read(location.localHeader, 30);
+		if (header.getInt(0) != LOCAL_HEADER) throw new IOException("Corrupt local header for " + name);
+		long start = location.localHeader + 30 + Short.toUnsignedInt(header.getShort(26)) + Short.toUnsignedInt(header.getShort(28));
+
+		//Positional reads leave the channel alone, so any number of threads can be copying at once
+		return new CompressedEntry(name, lastModified, location.method, location.crc, location.size, read(start, (int) location.compressedSize).array());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,246 @@
+package net.fabricmc.stitch.merge;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+class ZipWriter implements Closeable {
+	public static final int STORED = 0, DEFLATED = 8;
+	private static final int LOCAL_HEADER = 0x04034B50, CENTRAL_HEADER = 0x02014B50, END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064B50, ZIP64_LOCATOR = 0x07064B50, ZIP64_EXTRA = 0x0001;
+	private static final int MAX_ENTRIES = 0xFFFF;
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+	private static final int UTF8_FLAG = 0x800, DIRECTORY_ATTRIBUTE = 0x10;
+
+	public static class CompressedEntry {
+		public final String name;
+		public final FileTime lastModified;
+		public final int method;
+		public final long crc, size;
+		public final byte[] data;
+
+		public static CompressedEntry compress(String name, FileTime lastModified, byte[] contents, int level) {
+			CRC32 crc = new CRC32();
+			crc.update(contents);
+
+			if (level == Deflater.NO_COMPRESSION) {
+				return new CompressedEntry(name, lastModified, STORED, crc.getValue(), contents.length, contents);
+			}
+
+			Deflater deflater = new Deflater(level, true);
+			try {
+				deflater.setInput(contents);
+				deflater.finish();
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, contents.length / 2));
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+
+				return new CompressedEntry(name, lastModified, DEFLATED, crc.getValue(), contents.length, out.toByteArray());
+			} finally {
+				deflater.end();
+			}
+		}
+
+		public CompressedEntry(String name, FileTime lastModified, int method, long crc, long size, byte[] data) {
+			this.name = name;
+			this.lastModified = lastModified;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+		}
+	}
+
+	private final Path path;
+	private final OutputStream out;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final Set<String> directories = new HashSet<>();
+	private long offset, entries;
+	private boolean failed;
+
+	public ZipWriter(Path to) throws IOException {
+		out = new BufferedOutputStream(Files.newOutputStream(to), 1 << 16);
+		path = to;
+	}
+
+	public void write(CompressedEntry entry) throws IOException {
+		if (failed) throw new IllegalStateException("Writing to a failed jar");
+
+		try {
+			writeEntry(entry);
+		} catch (IOException | RuntimeException | Error e) {
+			failed = true; //Whatever was half written can't be finished into a valid jar
+			throw e;
+		}
+	}
+
+	private void writeEntry(CompressedEntry entry) throws IOException {
+		//Give every parent folder its own entry, as the zip file system used to
+		for (int split = entry.name.indexOf('/'); split > 0; split = entry.name.indexOf('/', split + 1)) {
+			String directory = entry.name.substring(0, split + 1);
+
+			if (directories.add(directory)) {
+				write(directory, entry.lastModified, STORED, 0, 0, new byte[0], DIRECTORY_ATTRIBUTE);
+			}
+		}
+
+		write(entry.name, entry.lastModified, entry.method, entry.crc, entry.size, entry.data, 0);
+	}
+
+	private void write(String name, FileTime lastModified, int method, long crc, long size, byte[] data, int attributes) throws IOException {
+		byte[] rawName = name.getBytes(StandardCharsets.UTF_8);
+		int dosTime = toDosTime(lastModified);
+
+		//Only entries past the classic limits get Zip64 extras, so every other entry stays readable by anything
+		boolean largeSizes = size >= MAX_SIZE || data.length >= MAX_SIZE;
+		boolean largeOffset = offset >= MAX_SIZE;
+		int version = largeSizes || largeOffset ? 45 : method == DEFLATED ? 20 : 10;
+
+		writeInt(out, LOCAL_HEADER);
+		writeShort(out, version);
+		writeShort(out, UTF8_FLAG);
+		writeShort(out, method);
+		writeInt(out, dosTime);
+		writeInt(out, (int) crc);
+		writeInt(out, largeSizes ? -1 : data.length);
+		writeInt(out, largeSizes ? -1 : (int) size);
+		writeShort(out, rawName.length);
+		writeShort(out, largeSizes ? 20 : 0);
+		out.write(rawName);
+		if (largeSizes) {
+			writeShort(out, ZIP64_EXTRA);
+			writeShort(out, 16);
+			writeLong(out, size);
+			writeLong(out, data.length);
+		}
+		out.write(data);
+
+		writeInt(centralDirectory, CENTRAL_HEADER);
+		writeShort(centralDirectory, version);
+		writeShort(centralDirectory, version);
+		writeShort(centralDirectory, UTF8_FLAG);
+		writeShort(centralDirectory, method);
+		writeInt(centralDirectory, dosTime);
+		writeInt(centralDirectory, (int) crc);
+		writeInt(centralDirectory, largeSizes ? -1 : data.length);
+		writeInt(centralDirectory, largeSizes ? -1 : (int) size);
+		writeShort(centralDirectory, rawName.length);
+		writeShort(centralDirectory, (largeSizes ? 16 : 0) + (largeOffset ? 8 : 0) + (largeSizes || largeOffset ? 4 : 0)); //Extra length
+		writeShort(centralDirectory, 0); //Comment length
+		writeShort(centralDirectory, 0); //Disk number
+		writeShort(centralDirectory, 0); //Internal attributes
+		writeInt(centralDirectory, attributes);
+		writeInt(centralDirectory, largeOffset ? -1 : (int) offset);
+		centralDirectory.write(rawName);
+		if (largeSizes || largeOffset) {
+			writeShort(centralDirectory, ZIP64_EXTRA);
+			writeShort(centralDirectory, (largeSizes ? 16 : 0) + (largeOffset ? 8 : 0));
+			if (largeSizes) {
+				writeLong(centralDirectory, size);
+				writeLong(centralDirectory, data.length);
+			}
+			if (largeOffset) writeLong(centralDirectory, offset);
+		}
+
+		offset += 30 + rawName.length + (largeSizes ? 20 : 0) + data.length;
+		entries++;
+	}
+
+	private static int toDosTime(FileTime time) {
+		LocalDateTime date = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+		if (date.getYear() < 1980) return 1 << 21 | 1 << 16; //1980-01-01 is as early as DOS can go
+
+		return date.getYear() - 1980 << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value & 0xFF);
+		out.write(value >>> 8 & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		writeShort(out, value & 0xFFFF);
+		writeShort(out, value >>> 16);
+	}
+
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		writeInt(out, (int) value);
+		writeInt(out, (int) (value >>> 32));
+	}
+
+	public void abort() throws IOException {
+		try {
+			out.close();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (failed) {
+			//Never leave a valid looking jar missing whatever didn't get written
+			abort();
+			return;
+		}
+
+		try {
+			centralDirectory.writeTo(out);
+			long directorySize = centralDirectory.size();
+
+			if (entries >= MAX_ENTRIES || directorySize >= MAX_SIZE || offset >= MAX_SIZE) {
+				long directoryEnd = offset + directorySize;
+
+				writeInt(out, ZIP64_END_OF_CENTRAL_DIRECTORY);
+				writeLong(out, 44); //Size of the rest of the record
+				writeShort(out, 45); //Version made by
+				writeShort(out, 45); //Version needed
+				writeInt(out, 0); //Disk number
+				writeInt(out, 0); //Central directory's disk
+				writeLong(out, entries);
+				writeLong(out, entries);
+				writeLong(out, directorySize);
+				writeLong(out, offset);
+
+				writeInt(out, ZIP64_LOCATOR);
+				writeInt(out, 0); //End of central directory's disk
+				writeLong(out, directoryEnd);
+				writeInt(out, 1); //Total disks
+			}
+
+			writeInt(out, END_OF_CENTRAL_DIRECTORY);
+			writeShort(out, 0); //Disk number
+			writeShort(out, 0); //Central directory's disk
+			writeShort(out, (int) Math.min(entries, MAX_ENTRIES));
+			writeShort(out, (int) Math.min(entries, MAX_ENTRIES));
+			writeInt(out, (int) Math.min(directorySize, MAX_SIZE));
+			writeInt(out, (int) Math.min(offset, MAX_SIZE));
+			writeShort(out, 0); //Comment length
+		} catch (IOException | RuntimeException | Error e) {
+			try {
+				abort();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+
+			throw e;
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package net.fabricmc.stitch.merge;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.fabricmc.stitch.merge.JarMerger.ClassEntry;
+
+//Run with ASM and the merger on the classpath, throws an AssertionError on the first failure
+public class ClassMergerTest {
+	private static final int ROUNDS = 200000;
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 5;
+
+		compareWithStitch(new Random(seed));
+		checkRepeats(new Random(seed));
+		checkClassMerge();
+
+		System.out.println("All passed");
+	}
+
+	//StitchUtil's original merge, which deadlocked (returning null here) when the two sides disagreed on order
+	private static List<String> stitchMerge(List<String> first, List<String> second) {
+		List<String> out = new ArrayList<>();
+		int i = 0, j = 0;
+
+		while (i < first.size() || j < second.size()) {
+			int startI = i, startJ = j;
+
+			while (i < first.size() && j < second.size() && first.get(i).equals(second.get(j))) {
+				out.add(first.get(i));
+				i++;
+				j++;
+			}
+
+			while (i < first.size() && !second.contains(first.get(i))) {
+				out.add(first.get(i));
+				i++;
+			}
+
+			while (j < second.size() && !first.contains(second.get(j))) {
+				out.add(second.get(j));
+				j++;
+			}
+
+			if (startI == i && startJ == j) return null;
+		}
+
+		return out;
+	}
+
+	private static void compareWithStitch(Random random) {
+		int same = 0, deadlocked = 0;
+
+		for (int round = 0; round < ROUNDS; round++) {
+			List<String> first = new ArrayList<>(), second = new ArrayList<>();
+			for (int k = 0, size = random.nextInt(12); k < size; k++) {
+				int sides = random.nextInt(3);
+				if (sides != 1) first.add("e" + k);
+				if (sides != 2) second.add("e" + k);
+			}
+			if (random.nextInt(4) == 0 && second.size() > 1) Collections.swap(second, random.nextInt(second.size()), random.nextInt(second.size()));
+
+			List<String> merged = ClassMerger.mergePreserveOrder(first, second);
+			Set<String> union = new HashSet<>(first);
+			union.addAll(second);
+			check(merged.size() == union.size() && union.containsAll(merged), "Not the union", first, second, merged);
+			check(keeps(merged, first), "Lost the first's order", first, second, merged);
+
+			List<String> expected = stitchMerge(first, second);
+			if (expected == null) {
+				deadlocked++;
+			} else {
+				check(expected.equals(merged), "Differs from Stitch " + expected, first, second, merged);
+				same++;
+			}
+		}
+
+		System.out.printf("Matched Stitch on %d pairs, merged %d it deadlocked over%n", same, deadlocked);
+	}
+
+	private static void checkRepeats(Random random) {
+		for (int round = 0; round < ROUNDS; round++) {
+			List<String> first = new ArrayList<>(), second = new ArrayList<>();
+			int pool = 1 + random.nextInt(5);
+			for (int k = random.nextInt(10); k > 0; k--) first.add("e" + random.nextInt(pool));
+			for (int k = random.nextInt(10); k > 0; k--) second.add("e" + random.nextInt(pool));
+
+			int[][] alignment = ClassMerger.alignPreserveOrder(first, second);
+			int[] fromFirst = alignment[0], fromSecond = alignment[1];
+			List<String> merged = Arrays.asList(Arrays.toString(fromFirst), Arrays.toString(fromSecond));
+
+			//Every entry of each side appears exactly once, in its side's order, and only pairs with an equal entry
+			int nextFirst = 0, nextSecond = 0;
+			for (int k = 0; k < fromFirst.length; k++) {
+				check(fromFirst[k] >= 0 || fromSecond[k] >= 0, "Empty slot", first, second, merged);
+
+				if (fromFirst[k] >= 0) check(fromFirst[k] == nextFirst++, "First out of order", first, second, merged);
+				if (fromFirst[k] >= 0 && fromSecond[k] >= 0) check(first.get(fromFirst[k]).equals(second.get(fromSecond[k])), "Mismatched pair", first, second, merged);
+			}
+			check(nextFirst == first.size(), "First entries missing", first, second, merged);
+
+			boolean[] seenSecond = new boolean[second.size()];
+			for (int j : fromSecond) {
+				if (j < 0) continue;
+
+				check(!seenSecond[j], "Second entry used twice", first, second, merged);
+				seenSecond[j] = true;
+				nextSecond++;
+			}
+			check(nextSecond == second.size(), "Second entries missing", first, second, merged);
+
+			//As many repeats pair as both sides have, any extras stay one sided
+			for (int k = 0; k < pool; k++) {
+				String entry = "e" + k;
+				int paired = 0;
+
+				for (int slot = 0; slot < fromFirst.length; slot++) {
+					if (fromFirst[slot] >= 0 && fromSecond[slot] >= 0 && first.get(fromFirst[slot]).equals(entry)) paired++;
+				}
+
+				check(paired == Math.min(Collections.frequency(first, entry), Collections.frequency(second, entry)), "Repeats of " + entry + " left unpaired", first, second, merged);
+			}
+		}
+	}
+
+	private static boolean keeps(List<String> merged, List<String> order) {
+		List<String> kept = new ArrayList<>(merged);
+		kept.retainAll(new HashSet<>(order));
+		return kept.equals(order);
+	}
+
+	private static void check(boolean condition, String message, List<String> first, List<String> second, List<String> result) {
+		if (!condition) throw new AssertionError(message + ": " + first + " + " + second + " gave " + result);
+	}
+
+	private static byte[] makeClass(String[] interfaces, String... methods) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "T", null, "java/lang/Object", interfaces);
+
+		for (String method : methods) {
+			MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, method, "()V", null, null);
+			mv.visitCode();
+			mv.visitLdcInsn(method);
+			mv.visitInsn(Opcodes.POP);
+			mv.visitInsn(Opcodes.RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static ClassNode merge(byte[] client, byte[] server) {
+		ClassEntry entryClient = new ClassEntry(Paths.get("T.class"), null, visitor -> new ClassReader(client).accept(visitor, 0));
+		ClassEntry entryServer = new ClassEntry(Paths.get("T.class"), null, visitor -> new ClassReader(server).accept(visitor, 0));
+		Consumer<ClassVisitor> merged = new ClassMerger().merge(entryClient, entryServer);
+
+		ClassWriter writer = new ClassWriter(0);
+		merged.accept(writer);
+
+		ClassNode out = new ClassNode();
+		new ClassReader(writer.toByteArray()).accept(out, 0);
+		return out;
+	}
+
+	private static void checkClassMerge() {
+		byte[] client = makeClass(new String[] {"java/lang/Runnable", "java/io/Serializable"}, "a", "b", "c", "d");
+		byte[] server = makeClass(new String[] {"java/io/Serializable", "java/lang/Runnable", "java/lang/Cloneable"}, "b", "a", "d", "d");
+		ClassNode merged = merge(client, server);
+
+		List<String> interfaces = Arrays.asList("java/lang/Runnable", "java/io/Serializable", "java/lang/Cloneable");
+		check(merged.interfaces.equals(interfaces), "Interfaces", null, null, merged.interfaces);
+
+		List<String> names = new ArrayList<>();
+		for (MethodNode method : merged.methods) {
+			names.add(method.name + '=' + sideOf(method));
+
+			//Every method, even the server's repeat of one it already has, needs to keep its code
+			LdcInsnNode ldc = null;
+			for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+				if (insn instanceof LdcInsnNode) ldc = (LdcInsnNode) insn;
+			}
+			check(ldc != null && method.name.equals(ldc.cst), "Code of " + method.name, null, null, names);
+		}
+		check(names.equals(Arrays.asList("a=null", "b=null", "c=CLIENT", "d=null", "d=SERVER")), "Methods", null, null, names);
+	}
+
+	private static String sideOf(MethodNode method) {
+		if (method.invisibleAnnotations == null) return null;
+
+		for (AnnotationNode annotation : method.invisibleAnnotations) {
+			if ("Lnet/fabricmc/api/Environment;".equals(annotation.desc)) return ((String[]) annotation.values.get(1))[1];
+		}
+
+		return null;
+	}
+}